@@ -0,0 +1,639 @@
+package LowLevelDesign.DesignDataStructures;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Size-bounded cache on top of ConcurrentHashMap.
+ *
+ * - Bounded by total weight (entry count by default, or any Weigher)
+ * - Pluggable eviction: LruPolicy, or WindowTinyLfuPolicy which only lets a new key
+ *   push out an old one if the new key has been asked for more often
+ * - Per-entry expiry (time to live), reclaimed by a hashed timer wheel
+ * - Hit / miss / eviction counters
+ *
+ * Reads never take a lock: the value comes straight from the ConcurrentHashMap and the
+ * access is recorded in a small lossy ring buffer. Writes and the eviction policy are
+ * guarded by one lock, which also drains that buffer, so every operation is O(1) amortized.
+ */
+public class BoundedCache<K, V> {
+
+    private static final int READ_BUFFER_SIZE = 128;   // power of two
+    private static final int DRAIN_EVERY_READS = 32;  // power of two
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /**
+     * How much of the maximum weight an entry uses
+     */
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /**
+     * Decides which entry to evict. All methods are called with the cache lock held.
+     */
+    public interface EvictionPolicy<K, V> {
+        void setMaximumWeight(long maximumWeight);
+
+        void onAdd(CacheNode<K, V> node);
+
+        void onAccess(CacheNode<K, V> node);
+
+        /**
+         * The node's value, and possibly weight, was replaced
+         */
+        default void onUpdate(CacheNode<K, V> node, int oldWeight) {
+            if (node.queue != null) {
+                node.queue.weight += node.weight - oldWeight;
+            }
+            onAccess(node);
+        }
+
+        void onRemove(CacheNode<K, V> node);
+
+        /**
+         * Called while the cache is over its maximum weight; returns the entry to drop
+         */
+        CacheNode<K, V> selectVictim();
+    }
+
+    /**
+     * One cached entry. Value and expiry are read without the lock;
+     * everything else belongs to the policy and the timer wheel.
+     */
+    public static final class CacheNode<K, V> {
+        final K key;
+        volatile V value;
+        volatile long expireAt;       // System.nanoTime() deadline, NO_EXPIRY if none
+        volatile boolean alive = true;
+        int weight;
+
+        // policy queue links
+        LinkedQueue<K, V> queue;
+        CacheNode<K, V> prev;
+        CacheNode<K, V> next;
+
+        // timer wheel links
+        int timerBucket = -1;
+        CacheNode<K, V> timerPrev;
+        CacheNode<K, V> timerNext;
+
+        CacheNode(K key, V value, int weight, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        boolean isExpired(long now) {
+            return expireAt != NO_EXPIRY && now - expireAt >= 0;
+        }
+    }
+
+    /**
+     * Intrusive doubly-linked list in access order (head = least recently used), with its total weight
+     */
+    static final class LinkedQueue<K, V> {
+        CacheNode<K, V> head;
+        CacheNode<K, V> tail;
+        long weight;
+
+        void addLast(CacheNode<K, V> node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(CacheNode<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            weight -= node.weight;
+        }
+
+        void moveToEnd(CacheNode<K, V> node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Plain least-recently-used eviction
+     */
+    public static final class LruPolicy<K, V> implements EvictionPolicy<K, V> {
+        private final LinkedQueue<K, V> accessOrder = new LinkedQueue<>();
+
+        @Override
+        public void setMaximumWeight(long maximumWeight) {
+        }
+
+        @Override
+        public void onAdd(CacheNode<K, V> node) {
+            accessOrder.addLast(node);
+        }
+
+        @Override
+        public void onAccess(CacheNode<K, V> node) {
+            accessOrder.moveToEnd(node);
+        }
+
+        @Override
+        public void onRemove(CacheNode<K, V> node) {
+            if (node.queue != null) {
+                accessOrder.remove(node);
+            }
+        }
+
+        @Override
+        public CacheNode<K, V> selectVictim() {
+            return accessOrder.head;
+        }
+    }
+
+    /**
+     * W-TinyLFU: new entries land in a small LRU window (1% of the weight). When the window
+     * overflows, its oldest entry competes with the oldest entry of the main LRU region and
+     * whichever key has the higher estimated access frequency stays. This keeps one-off
+     * scans from flushing out entries that are used over and over.
+     */
+    public static final class WindowTinyLfuPolicy<K, V> implements EvictionPolicy<K, V> {
+        private final LinkedQueue<K, V> window = new LinkedQueue<>();
+        private final LinkedQueue<K, V> main = new LinkedQueue<>();
+        private long windowMaximum;
+        private long mainMaximum;
+        private FrequencySketch sketch;
+
+        @Override
+        public void setMaximumWeight(long maximumWeight) {
+            windowMaximum = Math.max(1, maximumWeight / 100);
+            mainMaximum = Math.max(0, maximumWeight - windowMaximum);
+            sketch = new FrequencySketch(maximumWeight);
+        }
+
+        @Override
+        public void onAdd(CacheNode<K, V> node) {
+            sketch.increment(node.key);
+            window.addLast(node);
+        }
+
+        @Override
+        public void onAccess(CacheNode<K, V> node) {
+            sketch.increment(node.key);
+            if (node.queue != null) {
+                node.queue.moveToEnd(node);
+            }
+        }
+
+        @Override
+        public void onRemove(CacheNode<K, V> node) {
+            if (node.queue != null) {
+                node.queue.remove(node);
+            }
+        }
+
+        @Override
+        public CacheNode<K, V> selectVictim() {
+            while (window.weight > windowMaximum) {
+                CacheNode<K, V> candidate = window.head;
+                window.remove(candidate);
+                if (main.weight + candidate.weight <= mainMaximum) {
+                    main.addLast(candidate);
+                    continue;
+                }
+                CacheNode<K, V> victim = main.head;
+                if (victim == null) {
+                    return candidate;
+                }
+                // admission: the candidate only gets in if it is used more often than the victim
+                if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    main.remove(victim);
+                    main.addLast(candidate);
+                    return victim;
+                }
+                return candidate;
+            }
+            return main.head != null ? main.head : window.head;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters (4 rows). Counters are halved after every
+     * 10 x width increments, so old popularity fades out.
+     */
+    static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97cb3127, 0xb8b5d2b1, 0x8c7f6b8d, 0x3a8f05c5 };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counters;
+        private final int width;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int w = 16;
+            while (w < expectedEntries && w < (1 << 24)) {
+                w <<= 1;
+            }
+            this.width = w;
+            this.counters = new byte[SEEDS.length * w];
+            this.sampleSize = 10 * w;
+        }
+
+        private int indexOf(Object key, int row) {
+            int h = key.hashCode() * SEEDS[row];
+            h ^= h >>> 16;
+            return row * width + (h & (width - 1));
+        }
+
+        void increment(Object key) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int i = indexOf(key, row);
+                if (counters[i] < MAX_COUNT) {
+                    counters[i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions >>= 1;
+            }
+        }
+
+        int frequency(Object key) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                min = Math.min(min, counters[indexOf(key, row)]);
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Hashed timing wheel: entries are hung in the bucket of the tick they expire in.
+     * Each elapsed tick's bucket is scanned once; entries that expire in a later round
+     * of the wheel stay where they are.
+     */
+    static final class TimerWheel<K, V> {
+        private static final int TICK_SHIFT = 30;  // ~1.07 seconds per tick
+        private static final int BUCKETS = 1024;   // ~18 minutes per round
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final CacheNode<K, V>[] buckets = new CacheNode[BUCKETS];
+        private long processedTick = System.nanoTime() >> TICK_SHIFT;
+
+        void schedule(CacheNode<K, V> node) {
+            if (node.expireAt == NO_EXPIRY) {
+                return;
+            }
+            int bucket = (int) ((node.expireAt >> TICK_SHIFT) & (BUCKETS - 1));
+            node.timerBucket = bucket;
+            node.timerPrev = null;
+            node.timerNext = buckets[bucket];
+            if (buckets[bucket] != null) {
+                buckets[bucket].timerPrev = node;
+            }
+            buckets[bucket] = node;
+        }
+
+        void cancel(CacheNode<K, V> node) {
+            if (node.timerBucket < 0) {
+                return;
+            }
+            if (node.timerPrev == null) {
+                buckets[node.timerBucket] = node.timerNext;
+            } else {
+                node.timerPrev.timerNext = node.timerNext;
+            }
+            if (node.timerNext != null) {
+                node.timerNext.timerPrev = node.timerPrev;
+            }
+            node.timerBucket = -1;
+            node.timerPrev = null;
+            node.timerNext = null;
+        }
+
+        void reschedule(CacheNode<K, V> node) {
+            cancel(node);
+            schedule(node);
+        }
+
+        /**
+         * Hands every expired entry of the ticks that passed since the last call to the callback
+         */
+        void advance(long now, Consumer<CacheNode<K, V>> onExpired) {
+            long currentTick = now >> TICK_SHIFT;
+            long ticks = Math.min(currentTick - processedTick, BUCKETS);
+            for (long t = 0; t < ticks; t++) {
+                int bucket = (int) ((processedTick + t) & (BUCKETS - 1));
+                CacheNode<K, V> node = buckets[bucket];
+                while (node != null) {
+                    CacheNode<K, V> nextNode = node.timerNext;
+                    if (node.isExpired(now)) {
+                        cancel(node);
+                        onExpired.accept(node);
+                    }
+                    node = nextNode;
+                }
+            }
+            processedTick += ticks;
+            if (currentTick - processedTick >= BUCKETS) {
+                // nothing ran for a whole round or more, every bucket was just scanned
+                processedTick = currentTick;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<K, CacheNode<K, V>> data;
+    private final long maximumWeight;
+    private final Weigher<K, V> weigher;
+    private final EvictionPolicy<K, V> policy;
+    private final long defaultTtlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TimerWheel<K, V> timerWheel = new TimerWheel<>();
+    private long totalWeight;  // guarded by lock
+
+    private final AtomicReferenceArray<CacheNode<K, V>> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong reads = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Cache of at most maximumSize entries with W-TinyLFU eviction and no expiry
+     */
+    public BoundedCache(long maximumSize) {
+        this(maximumSize, (k, v) -> 1, new WindowTinyLfuPolicy<>(), 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maximumWeight total weight the cache may hold
+     * @param weigher       weight of a single entry
+     * @param policy        which entry to evict once the cache is over its weight
+     * @param defaultTtl    time to live of entries put without their own, 0 = never expire
+     */
+    public BoundedCache(long maximumWeight, Weigher<K, V> weigher, EvictionPolicy<K, V> policy,
+                        long defaultTtl, TimeUnit unit) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+        }
+        if (defaultTtl < 0) {
+            throw new IllegalArgumentException("Illegal time to live: " + defaultTtl);
+        }
+        if (weigher == null || policy == null || unit == null) {
+            throw new IllegalArgumentException("Weigher, policy and unit must not be null");
+        }
+        this.data = new ConcurrentHashMap<>((int) Math.min(maximumWeight, 1 << 16));
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.defaultTtlNanos = unit.toNanos(defaultTtl);
+        policy.setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * Returns the cached value, or null if absent or expired. Never blocks.
+     */
+    public V get(K key) {
+        CacheNode<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        long now = System.nanoTime();
+        if (node.isExpired(now)) {
+            misses.increment();
+            if (lock.tryLock()) {
+                try {
+                    // a put may have refreshed the node before we got the lock
+                    if (node.alive && node.isExpired(now)) {
+                        removeNode(node);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }
+        hits.increment();
+        recordRead(node);
+        return node.value;
+    }
+
+    /**
+     * Inserts or updates a value with the default time to live
+     */
+    public void put(K key, V value) {
+        put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Inserts or updates a value that expires after the given time, 0 = never
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight for key " + key);
+        }
+        long now = System.nanoTime();
+        long expireAt = ttl == 0 ? NO_EXPIRY : now + unit.toNanos(ttl);
+
+        lock.lock();
+        try {
+            maintenance(now);
+            CacheNode<K, V> node = data.get(key);
+            if (node != null) {
+                int oldWeight = node.weight;
+                node.value = value;
+                node.weight = weight;
+                node.expireAt = expireAt;
+                totalWeight += weight - oldWeight;
+                timerWheel.reschedule(node);
+                policy.onUpdate(node, oldWeight);
+            } else {
+                node = new CacheNode<>(key, value, weight, expireAt);
+                data.put(key, node);
+                totalWeight += weight;
+                policy.onAdd(node);
+                timerWheel.schedule(node);
+            }
+            while (totalWeight > maximumWeight) {
+                CacheNode<K, V> victim = policy.selectVictim();
+                if (victim == null) {
+                    break;
+                }
+                removeNode(victim);
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the key from the cache
+     */
+    public void remove(K key) {
+        lock.lock();
+        try {
+            CacheNode<K, V> node = data.get(key);
+            if (node != null) {
+                removeNode(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies pending reads to the policy and reclaims expired entries now
+     * instead of on the next write
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            maintenance(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long weight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 1.0 : (double) h / total;
+    }
+
+    /**
+     * Lossy: under heavy contention a slot may be overwritten before it is drained,
+     * which only makes the recency order slightly less exact
+     */
+    private void recordRead(CacheNode<K, V> node) {
+        long n = reads.getAndIncrement();
+        readBuffer.lazySet((int) (n & (READ_BUFFER_SIZE - 1)), node);
+        if ((n & (DRAIN_EVERY_READS - 1)) == DRAIN_EVERY_READS - 1 && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void maintenance(long now) {
+        drainReadBuffer();
+        timerWheel.advance(now, this::removeNode);
+    }
+
+    private void drainReadBuffer() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            CacheNode<K, V> node = readBuffer.getAndSet(i, null);
+            if (node != null && node.alive) {
+                policy.onAccess(node);
+            }
+        }
+    }
+
+    private void removeNode(CacheNode<K, V> node) {
+        node.alive = false;
+        // the key may already map to a newer node
+        data.remove(node.key, node);
+        policy.onRemove(node);
+        timerWheel.cancel(node);
+        totalWeight -= node.weight;
+    }
+
+    /**
+     * Simple testing
+     */
+    public static void main(String args[]) throws InterruptedException {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(100);
+
+        // a small hot set that keeps being read...
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "hot" + i);
+        }
+        // ...survives a scan over many one-off keys
+        for (int i = 1000; i < 11_000; i++) {
+            cache.put(i, "cold" + i);
+            if (i % 100 == 0) {
+                for (int hot = 0; hot < 10; hot++) {
+                    cache.get(hot);
+                }
+            }
+        }
+        System.out.println(cache.get(8));
+        System.out.println("Size is " + cache.size() + ", evictions " + cache.evictionCount()
+                + ", hit rate " + cache.hitRate());
+
+        BoundedCache<String, String> sessions = new BoundedCache<>(1_000, (k, v) -> v.length(),
+                new LruPolicy<>(), 50, TimeUnit.MILLISECONDS);
+        sessions.put("alice", "token-1");
+        sessions.put("bob", "token-2", 10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        System.out.println(sessions.get("alice") + " " + sessions.get("bob"));
+    }
+}
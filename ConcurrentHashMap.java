@@ -0,0 +1,419 @@
+package LowLevelDesign.DesignDataStructures;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe sibling of HashMap.
+ *
+ * - get never locks: bins are read through an AtomicReferenceArray and chain links are volatile
+ * - put CASes into an empty bin, otherwise locks only the head node of its own bin
+ * - resize is cooperative: the table is split into strides of bins and every thread that runs
+ *   into a resize in progress claims a stride and moves it, instead of waiting for one thread
+ *   to rehash everything
+ *
+ * Null keys and null values are not supported, since get returns null for "absent".
+ */
+public class ConcurrentHashMap<K, V> {
+
+    private static final int INITIAL_SIZE = 1 << 4; // 16
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int TRANSFER_STRIDE = 16;  // bins claimed per helping thread at a time
+
+    private final float loadFactor;
+    private final LongAdder count = new LongAdder(); // striped counter, no contention on size updates
+
+    private volatile AtomicReferenceArray<Node<K, V>> table;
+    private volatile int threshold;
+
+    // the latest resize, null before the first one. It is never cleared: once its newTable is
+    // the table it is finished, and a new resize must CAS it out, so no two resizes overlap
+    private final AtomicReference<Transfer<K, V>> transfer = new AtomicReference<>();
+
+    /**
+     * Default constructor with default capacity 16 and default load factor 0.75
+     */
+    public ConcurrentHashMap() {
+        this(INITIAL_SIZE, 0.75f);
+    }
+
+    /**
+     * Constructor that takes only initial capacity; load factor = 0.75
+     */
+    public ConcurrentHashMap(int capacity) {
+        this(capacity, 0.75f);
+    }
+
+    /**
+     * Constructor that takes initial capacity and a load factor
+     */
+    public ConcurrentHashMap(int capacity, float loadFactor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
+        }
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        int tableSize = tableSizeFor(capacity);
+        this.loadFactor = loadFactor;
+        this.table = new AtomicReferenceArray<>(tableSize);
+        this.threshold = (int) (tableSize * loadFactor);
+    }
+
+    /**
+     * Ensures capacity is a power of two and not greater than MAXIMUM_CAPACITY
+     */
+    final int tableSizeFor(int cap) {
+        int n = cap - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * A chain node. The key and hash never change; value and next are volatile
+     * so that lock-free readers see updates made under the bin lock.
+     */
+    static class Node<K, V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        volatile Node<K, V> next;
+
+        Node(int hash, K key, V value, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Placed in a bin of the old table once that bin has been moved,
+     * so readers and writers know to continue in the new table
+     */
+    static final class ForwardingNode<K, V> extends Node<K, V> {
+        final Transfer<K, V> transfer;
+
+        ForwardingNode(Transfer<K, V> transfer) {
+            super(-1, null, null, null);
+            this.transfer = transfer;
+        }
+    }
+
+    /**
+     * State of one resize. Each resize gets its own instance, so a thread that
+     * arrives late for an old resize cannot claim bins of a newer one.
+     */
+    static final class Transfer<K, V> {
+        final AtomicReferenceArray<Node<K, V>> oldTable;
+        final AtomicReferenceArray<Node<K, V>> newTable;
+        final AtomicInteger nextBin;       // bins [0, nextBin) are still unclaimed
+        final AtomicInteger binsRemaining; // bins not yet moved
+        final ForwardingNode<K, V> forwardingNode;
+
+        Transfer(AtomicReferenceArray<Node<K, V>> oldTable, AtomicReferenceArray<Node<K, V>> newTable) {
+            this.oldTable = oldTable;
+            this.newTable = newTable;
+            this.nextBin = new AtomicInteger(oldTable.length());
+            this.binsRemaining = new AtomicInteger(oldTable.length());
+            this.forwardingNode = new ForwardingNode<>(this);
+        }
+    }
+
+    /**
+     * Inserts or updates a key-value pair into the map
+     */
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        int hash = spread(key.hashCode());
+        AtomicReferenceArray<Node<K, V>> tab = table;
+
+        while (true) {
+            int index = hash & (tab.length() - 1);
+            Node<K, V> head = tab.get(index);
+
+            if (head == null) {
+                // empty bin: publish the new node without locking
+                if (tab.compareAndSet(index, null, new Node<>(hash, key, value, null))) {
+                    break;
+                }
+                continue;
+            }
+            if (head instanceof ForwardingNode) {
+                // bin already moved: help finish the resize, then retry in the new table
+                Transfer<K, V> t = ((ForwardingNode<K, V>) head).transfer;
+                helpTransfer(t);
+                tab = t.newTable;
+                continue;
+            }
+
+            synchronized (head) {
+                if (tab.get(index) != head) {
+                    // head was replaced (moved or new head) while we waited for the lock
+                    continue;
+                }
+                Node<K, V> node = head;
+                while (true) {
+                    if (node.hash == hash && node.key.equals(key)) {
+                        node.value = value;
+                        return;
+                    }
+                    if (node.next == null) {
+                        node.next = new Node<>(hash, key, value, null);
+                        break;
+                    }
+                    node = node.next;
+                }
+            }
+            break;
+        }
+
+        count.increment();
+        if (count.sum() >= threshold) {
+            tryStartResize(tab);
+        }
+    }
+
+    /**
+     * Retrieves the value associated with the given key, without taking any lock
+     */
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        int hash = spread(key.hashCode());
+        AtomicReferenceArray<Node<K, V>> tab = table;
+
+        while (true) {
+            Node<K, V> node = tab.get(hash & (tab.length() - 1));
+            if (node instanceof ForwardingNode) {
+                tab = ((ForwardingNode<K, V>) node).transfer.newTable;
+                continue;
+            }
+            while (node != null) {
+                if (node.hash == hash && node.key.equals(key)) {
+                    return node.value;
+                }
+                node = node.next;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Removes the key and returns its value, or null if it was not present.
+     * Locks only the head of the key's bin; readers walking the chain are not affected
+     * because the removed node keeps its next link.
+     */
+    public V remove(K key) {
+        return removeNode(key, null);
+    }
+
+    /**
+     * Removes the key only while it still maps to the given value. Returns whether it did.
+     */
+    public boolean remove(K key, V value) {
+        return value != null && removeNode(key, value) != null;
+    }
+
+    /**
+     * Removes the key if value is null or equals its current value
+     */
+    private V removeNode(K key, V value) {
+        if (key == null) {
+            return null;
+        }
+        int hash = spread(key.hashCode());
+        AtomicReferenceArray<Node<K, V>> tab = table;
+
+        while (true) {
+            int index = hash & (tab.length() - 1);
+            Node<K, V> head = tab.get(index);
+
+            if (head == null) {
+                return null;
+            }
+            if (head instanceof ForwardingNode) {
+                Transfer<K, V> t = ((ForwardingNode<K, V>) head).transfer;
+                helpTransfer(t);
+                tab = t.newTable;
+                continue;
+            }
+
+            synchronized (head) {
+                if (tab.get(index) != head) {
+                    continue;
+                }
+                Node<K, V> prevNode = null;
+                for (Node<K, V> node = head; node != null; node = node.next) {
+                    if (node.hash == hash && node.key.equals(key)) {
+                        if (value != null && !value.equals(node.value)) {
+                            return null;
+                        }
+                        if (prevNode == null) {
+                            tab.set(index, node.next);
+                        } else {
+                            prevNode.next = node.next;
+                        }
+                        count.decrement();
+                        return node.value;
+                    }
+                    prevNode = node;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the current number of key-value pairs
+     */
+    public int size() {
+        long n = count.sum();
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Mixes the high bits into the low bits, since the index only uses the low bits
+     */
+    static int spread(int h) {
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    }
+
+    /**
+     * Starts a resize of the given table, or helps the one already running.
+     * Everything is checked before the new resize is published: once other threads
+     * can see it they may be helping, so it is never taken back.
+     */
+    private void tryStartResize(AtomicReferenceArray<Node<K, V>> tab) {
+        Transfer<K, V> last = transfer.get();
+        if (last != null && table != last.newTable) {
+            // still running, help it instead
+            helpTransfer(last);
+            return;
+        }
+        int oldCapacity = tab.length();
+        if (oldCapacity >= MAXIMUM_CAPACITY || table != tab || count.sum() < threshold) {
+            // a resize finished after we read the table, nothing to do
+            return;
+        }
+        // the CAS fails if any resize started since last, so tab is still the table when it succeeds
+        Transfer<K, V> t = new Transfer<>(tab, new AtomicReferenceArray<>(oldCapacity << 1));
+        if (transfer.compareAndSet(last, t)) {
+            helpTransfer(t);
+            return;
+        }
+        Transfer<K, V> running = transfer.get();
+        if (table != running.newTable) {
+            helpTransfer(running);
+        }
+    }
+
+    /**
+     * Claims strides of bins until none are left. The thread that moves the
+     * last bin publishes the new table.
+     */
+    private void helpTransfer(Transfer<K, V> t) {
+        while (true) {
+            int hi = t.nextBin.get();
+            if (hi <= 0) {
+                return;
+            }
+            int lo = Math.max(0, hi - TRANSFER_STRIDE);
+            if (!t.nextBin.compareAndSet(hi, lo)) {
+                continue;
+            }
+            for (int i = hi - 1; i >= lo; i--) {
+                transferBin(t, i);
+            }
+            if (t.binsRemaining.addAndGet(lo - hi) == 0) {
+                // threshold first: whoever sees the new table also sees its threshold
+                threshold = (int) (t.newTable.length() * loadFactor);
+                table = t.newTable;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Splits bin i of the old table into bins i and i + oldCapacity of the new table.
+     * Nodes are copied so that readers still walking the old chain are not disturbed.
+     */
+    private void transferBin(Transfer<K, V> t, int i) {
+        AtomicReferenceArray<Node<K, V>> oldTable = t.oldTable;
+        AtomicReferenceArray<Node<K, V>> newTable = t.newTable;
+        int oldCapacity = oldTable.length();
+
+        while (true) {
+            Node<K, V> head = oldTable.get(i);
+            if (head == null) {
+                if (oldTable.compareAndSet(i, null, t.forwardingNode)) {
+                    return;
+                }
+                continue;
+            }
+            if (head instanceof ForwardingNode) {
+                Transfer<K, V> owner = ((ForwardingNode<K, V>) head).transfer;
+                if (owner != t) {
+                    // moved by another resize: finish that one, never copy its forwarding node
+                    helpTransfer(owner);
+                }
+                return;
+            }
+            synchronized (head) {
+                if (oldTable.get(i) != head) {
+                    continue;
+                }
+                Node<K, V> lo = null;
+                Node<K, V> hi = null;
+                for (Node<K, V> node = head; node != null; node = node.next) {
+                    if ((node.hash & oldCapacity) == 0) {
+                        lo = new Node<>(node.hash, node.key, node.value, lo);
+                    } else {
+                        hi = new Node<>(node.hash, node.key, node.value, hi);
+                    }
+                }
+                newTable.set(i, lo);
+                newTable.set(i + oldCapacity, hi);
+                oldTable.set(i, t.forwardingNode);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Simple testing
+     */
+    public static void main(String args[]) throws InterruptedException {
+        ConcurrentHashMap<Integer, String> map = new ConcurrentHashMap<>(7);
+
+        int threads = 4;
+        int perThread = 100_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            workers[t] = new Thread(() -> {
+                for (int i = base; i < base + perThread; i++) {
+                    map.put(i, "v" + i);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.println(map.get(123_456));
+
+        // Print size
+        System.out.println("Size is " + map.size());
+    }
+}
@@ -3,7 +3,56 @@ import java.util.*;
 
 import javax.annotation.processing.Filer;
 
-import java.io.*;;
+import java.io.*;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 /*
  * Linux File Command
  * search by size and name/name pattern
@@ -85,10 +134,11 @@ interface FileSystem {
     public void ls();
 }
 
-class File implements FileSystem {
+// in-memory file of the FileSystem sketch above; named so it does not shadow java.io.File
+class RegularFile implements FileSystem {
     private final String name;
 
-    File(String name) {
+    RegularFile(String name) {
         this.name = name;
     }
 
@@ -128,47 +178,219 @@ class Directory implements FileSystem {
     
 }
 
+/**
+ * A rule gets the path together with the attributes the walker already read for it,
+ * so matching never has to stat the file again.
+ * Rules are shared by all worker threads of findParallel, so implementations must be stateless
+ * (or thread-safe)
+ */
 interface FileRule {
-    public boolean match(File f);
+    public boolean match(Path path, BasicFileAttributes attrs);
+
+    /**
+     * Ids of the indexed files that may match, sorted ascending, or null if this rule
+     * cannot narrow the search (then the index checks every entry)
+     */
+    default int[] candidates(FileIndex index) {
+        return null;
+    }
+
+    /**
+     * Rough cost of one match call, used by RulePlanner to run cheap rules first.
+     * Name checks and attribute reads cost about 1; unknown rules are assumed to be expensive.
+     */
+    default double cost() {
+        return 10;
+    }
 }
 
 class FileRuleExtension implements FileRule {
     final private String ext;
+    final private String suffix;    // built once, not per file
     FileRuleExtension (String ext) {
         this.ext = ext;
+        this.suffix = "." + ext;
+    }
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        return path.getFileName().toString().endsWith(suffix);
+    }
+
+    @Override
+    public double cost() {
+        return 1;
+    }
+
+    @Override
+    public int[] candidates(FileIndex index) {
+        // the index only knows the part after the last dot, so "tar.gz" has to scan
+        return ext.indexOf('.') < 0 ? index.withExtension(ext) : null;
+    }
+}
+
+/**
+ * Matches the file name against a glob ("*.{jpg,png}", "report-202?-*"), compiled once
+ */
+class FileRuleGlob implements FileRule {
+    private final PathMatcher matcher;
+
+    FileRuleGlob(String glob) {
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        Path name = path.getFileName();
+        return name != null && matcher.matches(name);
+    }
+
+    @Override
+    public double cost() {
+        return 1;
+    }
+}
+
+/**
+ * Matches the whole file name against a regex, compiled once
+ */
+class FileRuleRegex implements FileRule {
+    private final Pattern pattern;
+
+    FileRuleRegex(String regex) {
+        this.pattern = Pattern.compile(regex);
+    }
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        Path name = path.getFileName();
+        return name != null && pattern.matcher(name.toString()).matches();
     }
 
     @Override
-    public boolean match(File f) {
-        return f.getName().endsWith("." + this.ext);
+    public double cost() {
+        return 2;
     }
 }
 
 class FileRuleSize implements FileRule {
     enum FileRuleSizeOp {
-        LT, GT, EQ, GTE, LTE
+        LT, GT, EQ, GTE, LTE;
+
+        boolean test(long actual, long expected) {
+            switch (this) {
+                case LT:
+                    return actual < expected;
+                case GT:
+                    return actual > expected;
+                case EQ:
+                    return actual == expected;
+                case GTE:
+                    return actual >= expected;
+                default:
+                    return actual <= expected;
+            }
+        }
+
+        /**
+         * Smallest and largest value passing the comparison, for range lookups in the index
+         */
+        long[] range(long expected) {
+            switch (this) {
+                case LT:
+                    return expected == Long.MIN_VALUE ? new long[] {0, -1} : new long[] {Long.MIN_VALUE, expected - 1};
+                case GT:
+                    return expected == Long.MAX_VALUE ? new long[] {0, -1} : new long[] {expected + 1, Long.MAX_VALUE};
+                case EQ:
+                    return new long[] {expected, expected};
+                case GTE:
+                    return new long[] {expected, Long.MAX_VALUE};
+                default:
+                    return new long[] {Long.MIN_VALUE, expected};
+            }
+        }
     }
 
-    private final int size;
+    private final long size;
     private final FileRuleSizeOp op;
 
-    FileRuleSize(int size, FileRuleSizeOp op) {
+    FileRuleSize(long size, FileRuleSizeOp op) {
         this.size = size;
         this.op = op;
     }
 
     @Override
-    public boolean match(File f) {
-       switch (this.op) {
-        case LT:
-            return f.length() < size;
-        case GT:
-            return f.length() > size;
-        //implement rest
-        default:
-            return false;
-       }
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        return op.test(attrs.size(), size);
     }   
+
+    @Override
+    public int[] candidates(FileIndex index) {
+        long[] range = op.range(size);
+        return index.sizeBetween(range[0], range[1]);
+    }
+
+    @Override
+    public double cost() {
+        // the walker already read the attributes
+        return 1;
+    }
+}
+
+/**
+ * Compares the last modified time with a fixed instant, at millisecond precision
+ * (the precision the index keeps)
+ */
+class FileRuleModified implements FileRule {
+    private final long time;
+    private final FileRuleSize.FileRuleSizeOp op;
+
+    FileRuleModified(FileTime time, FileRuleSize.FileRuleSizeOp op) {
+        this.time = time.toMillis();
+        this.op = op;
+    }
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        return op.test(attrs.lastModifiedTime().toMillis(), time);
+    }
+
+    @Override
+    public int[] candidates(FileIndex index) {
+        long[] range = op.range(time);
+        return index.modifiedBetween(range[0], range[1]);
+    }
+
+    @Override
+    public double cost() {
+        return 1;
+    }
+}
+
+/**
+ * Compares the age of a file (now - mtime) with a duration, e.g. GT 7 days = older than a week.
+ * "now" is taken once, here, so a whole walk uses the same cut-off.
+ */
+class FileRuleAge extends FileRuleModified {
+    FileRuleAge(Duration age, FileRuleSize.FileRuleSizeOp op) {
+        super(FileTime.fromMillis(System.currentTimeMillis() - age.toMillis()), flip(op));
+    }
+
+    // older means an earlier mtime, so every comparison turns around
+    private static FileRuleSize.FileRuleSizeOp flip(FileRuleSize.FileRuleSizeOp op) {
+        switch (op) {
+            case LT:
+                return FileRuleSize.FileRuleSizeOp.GT;
+            case GT:
+                return FileRuleSize.FileRuleSizeOp.LT;
+            case GTE:
+                return FileRuleSize.FileRuleSizeOp.LTE;
+            case LTE:
+                return FileRuleSize.FileRuleSizeOp.GTE;
+            default:
+                return op;
+        }
+    }
 }
 
 class FileRuleAnd implements FileRule {
@@ -178,15 +400,41 @@ class FileRuleAnd implements FileRule {
         this.rules = rules;
     }
 
+    List<FileRule> rules() {
+        return rules;
+    }
+
     @Override
-    public boolean match(File f) {
+    public double cost() {
+        double cost = 0;
         for (FileRule rule: rules) {
-            if (!rule.match(f)) {
+            cost += rule.cost();
+        }
+        return cost;
+    }
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        for (FileRule rule: rules) {
+            if (!rule.match(path, attrs)) {
                 return false;
             }
         }
         return true;
 }
+
+    @Override
+    public int[] candidates(FileIndex index) {
+        // every child has to match, so any child that narrows the search narrows the whole rule
+        int[] result = null;
+        for (FileRule rule: rules) {
+            int[] ids = rule.candidates(index);
+            if (ids != null) {
+                result = result == null ? ids : FileIndex.intersect(result, ids);
+            }
+        }
+        return result;
+    }
 }
 
 class FileRuleOr implements FileRule {
@@ -196,39 +444,1962 @@ class FileRuleOr implements FileRule {
         this.rules = rules;
     }
 
+    List<FileRule> rules() {
+        return rules;
+    }
+
+    @Override
+    public double cost() {
+        double cost = 0;
+        for (FileRule rule: rules) {
+            cost += rule.cost();
+        }
+        return cost;
+    }
+
     @Override
-    public boolean match(File f) {
+    public boolean match(Path path, BasicFileAttributes attrs) {
         for (FileRule rule: rules) {
-            if (rule.match(f)) {
+            if (rule.match(path, attrs)) {
                 return true;
             }
         }
         return false;
 }
-    
+
+    @Override
+    public int[] candidates(FileIndex index) {
+        // a single child that cannot narrow means any file may match
+        int[] result = new int[0];
+        for (FileRule rule: rules) {
+            int[] ids = rule.candidates(index);
+            if (ids == null) {
+                return null;
+            }
+            result = FileIndex.union(result, ids);
+        }
+        return result;
+    }
 }
 
-public class FindFile {
+/**
+ * Base of the rules that look inside files.
+ *
+ * - files up to SMALL_FILE bytes are read with one call into a per-thread direct buffer,
+ *   larger ones are memory-mapped in WINDOW sized pieces that overlap by overlap() bytes,
+ *   so a match spanning two windows is still found
+ * - a file with a NUL byte in its first SNIFF_BYTES is treated as binary and never matches
+ *   (the same heuristic grep uses)
+ * - cost() is high, so RulePlanner runs content rules after the name and size rules of
+ *   the same And; reading the file is the most expensive thing a rule can do
+ */
+abstract class ContentRule implements FileRule {
+    static final int SMALL_FILE = 1 << 16;  // 64KB
+    static final long WINDOW = 1L << 26;    // 64MB
+    static final int SNIFF_BYTES = 8192;
 
-    public static void find(File baseDir, FileRule rule) {
-        if (baseDir.isDirectory()) {
-            for (File f: baseDir.listFiles()) {
-                if (f.isDirectory()) {
-                    find(f, rule);
-                }else {
-                    if (rule.match((f))) {
-                        System.out.println(f.getName());
-                    }
+    private static final ThreadLocal<ByteBuffer> SMALL_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(SMALL_FILE));
+
+    /**
+     * Whether the bytes in [buffer.position(), buffer.limit()) contain a match
+     */
+    abstract boolean contains(ByteBuffer buffer);
+
+    /**
+     * Bytes shared by consecutive windows; a match no longer than this is never split
+     */
+    abstract int overlap();
+
+    @Override
+    public boolean match(Path path, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile()) {
+            return false;
+        }
+        long size = attrs.size();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (size <= SMALL_FILE) {
+                ByteBuffer buffer = SMALL_BUFFER.get();
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the whole file is in
+                }
+                buffer.flip();
+                return !isBinary(buffer) && contains(buffer);
+            }
+            long step = WINDOW - overlap();
+            for (long position = 0; position < size; position += step) {
+                long length = Math.min(WINDOW, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (position == 0 && isBinary(window)) {
+                    return false;
                 }
+                if (contains(window)) {
+                    return true;
+                }
+                if (position + length >= size) {
+                    break;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            // unreadable or vanished file
+            return false;
+        }
+    }
+
+    static boolean isBinary(ByteBuffer buffer) {
+        int end = Math.min(buffer.limit(), buffer.position() + SNIFF_BYTES);
+        for (int i = buffer.position(); i < end; i++) {
+            if (buffer.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double cost() {
+        return 1000;
+    }
+}
+
+/**
+ * Matches text files containing any of the given literals (UTF-8 bytes).
+ * A single literal is searched with Boyer-Moore-Horspool, which skips ahead by up to the
+ * pattern length per step; several literals with an Aho-Corasick automaton, which reads every
+ * byte once whatever the number of patterns. Both are built once, here.
+ */
+class FileRuleContent extends ContentRule {
+    private final byte[] single;    // Horspool pattern, or null
+    private final int[] shift;      // Horspool bad character shifts
+    private final int[] dfa;        // Aho-Corasick transitions, state * 256 + byte
+    private final boolean[] accepting;
+    private final int maxLength;
+
+    FileRuleContent(String... literals) {
+        if (literals.length == 0) {
+            throw new IllegalArgumentException("At least one literal is required");
+        }
+        byte[][] patterns = new byte[literals.length][];
+        int longest = 0;
+        for (int i = 0; i < literals.length; i++) {
+            patterns[i] = literals[i].getBytes(StandardCharsets.UTF_8);
+            if (patterns[i].length == 0) {
+                throw new IllegalArgumentException("Empty literal");
             }
+            longest = Math.max(longest, patterns[i].length);
+        }
+        this.maxLength = longest;
+        if (patterns.length == 1) {
+            this.single = patterns[0];
+            this.shift = horspoolShifts(single);
+            this.dfa = null;
+            this.accepting = null;
         } else {
-            if (rule.match((baseDir))) {
-                System.out.println(baseDir.getName());
+            this.single = null;
+            this.shift = null;
+            int states = 1;
+            for (byte[] pattern: patterns) {
+                states += pattern.length;
             }
+            this.dfa = new int[states * 256];
+            this.accepting = new boolean[states];
+            buildAutomaton(patterns);
         }
     }
-    
-    public static void main(String[] args) {
-        
+
+    private static int[] horspoolShifts(byte[] pattern) {
+        int[] shift = new int[256];
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shift[pattern[i] & 0xff] = pattern.length - 1 - i;
+        }
+        return shift;
+    }
+
+    /**
+     * Trie of the patterns, then failure links in BFS order folded into a full transition table
+     */
+    private void buildAutomaton(byte[][] patterns) {
+        Arrays.fill(dfa, -1);
+        int next = 1;
+        for (byte[] pattern: patterns) {
+            int state = 0;
+            for (byte b: pattern) {
+                int slot = state * 256 + (b & 0xff);
+                if (dfa[slot] < 0) {
+                    dfa[slot] = next++;
+                }
+                state = dfa[slot];
+            }
+            accepting[state] = true;
+        }
+        int[] fail = new int[accepting.length];
+        int[] queue = new int[accepting.length];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < 256; c++) {
+            int child = dfa[c];
+            if (child < 0) {
+                dfa[c] = 0;
+            } else {
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            accepting[state] |= accepting[fail[state]];
+            for (int c = 0; c < 256; c++) {
+                int slot = state * 256 + c;
+                int child = dfa[slot];
+                if (child < 0) {
+                    dfa[slot] = dfa[fail[state] * 256 + c];
+                } else {
+                    fail[child] = dfa[fail[state] * 256 + c];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean contains(ByteBuffer buffer) {
+        int from = buffer.position();
+        int to = buffer.limit();
+        if (single != null) {
+            int m = single.length;
+            int last = m - 1;
+            for (int i = from; i <= to - m; i += shift[buffer.get(i + last) & 0xff]) {
+                int j = last;
+                while (j >= 0 && buffer.get(i + j) == single[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = dfa[(state << 8) | (buffer.get(i) & 0xff)];
+            if (accepting[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    int overlap() {
+        return maxLength - 1;
+    }
+}
+
+/**
+ * Matches text files in which the regex finds a match. The pattern is compiled once and runs
+ * over the file bytes without decoding them, each byte seen as one ISO-8859-1 char: ASCII
+ * patterns work on UTF-8 files, non-ASCII characters have to be written as their UTF-8 bytes.
+ * In files larger than one window, matches longer than REGEX_OVERLAP bytes may be missed.
+ */
+class FileRuleContentRegex extends ContentRule {
+    static final int REGEX_OVERLAP = 1 << 20; // 1MB
+
+    private final Pattern pattern;
+
+    FileRuleContentRegex(String regex) {
+        this.pattern = Pattern.compile(regex);
+    }
+
+    @Override
+    boolean contains(ByteBuffer buffer) {
+        return pattern.matcher(new ByteChars(buffer, buffer.position(), buffer.limit())).find();
+    }
+
+    @Override
+    int overlap() {
+        return REGEX_OVERLAP;
+    }
+
+    /**
+     * Zero-copy CharSequence view of a byte range
+     */
+    static final class ByteChars implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+
+        ByteChars(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new ByteChars(buffer, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length());
+            for (int i = start; i < end; i++) {
+                sb.append((char) (buffer.get(i) & 0xff));
+            }
+            return sb.toString();
+        }
+    }
+}
+
+/**
+ * Decides whether a walk descends into a subdirectory. It is asked before the directory is
+ * listed, so a pruned subtree costs a single stat instead of a read of everything below it.
+ * depth is 1 for the children of the base directory; the base directory itself is always listed.
+ */
+interface DirectoryRule {
+    DirectoryRule ALL = (dir, attrs, depth) -> true;
+
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth);
+}
+
+/**
+ * Skips directories matching any of the globs. A glob without a separator is matched against
+ * the directory name (".git", "node_modules", "*.cache"), one with a separator against the
+ * whole path ("/proc", "/mnt/backup"). Patterns are compiled once, here.
+ */
+class DirectoryRuleExclude implements DirectoryRule {
+    private final List<PathMatcher> nameMatchers = new ArrayList<>();
+    private final List<PathMatcher> pathMatchers = new ArrayList<>();
+
+    DirectoryRuleExclude(String... globs) {
+        String separator = FileSystems.getDefault().getSeparator();
+        for (String glob: globs) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            if (glob.contains("/") || glob.contains(separator)) {
+                pathMatchers.add(matcher);
+            } else {
+                nameMatchers.add(matcher);
+            }
+        }
+    }
+
+    @Override
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth) {
+        Path name = dir.getFileName();
+        for (PathMatcher matcher: nameMatchers) {
+            if (name != null && matcher.matches(name)) {
+                return false;
+            }
+        }
+        for (PathMatcher matcher: pathMatchers) {
+            if (matcher.matches(dir)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+/**
+ * Like find -maxdepth: files deeper than maxDepth levels below the base directory are not visited
+ */
+class DirectoryRuleMaxDepth implements DirectoryRule {
+    private final int maxDepth;
+
+    DirectoryRuleMaxDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Illegal max depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth) {
+        // files of a directory at depth d are at depth d + 1
+        return depth < maxDepth;
+    }
+}
+
+/**
+ * Descends only into directories whose mtime lies in [from, to]. A directory's mtime changes
+ * when entries are added, removed or renamed in it, not when a file in it is rewritten.
+ */
+class DirectoryRuleModified implements DirectoryRule {
+    private final FileTime from;
+    private final FileTime to;
+
+    DirectoryRuleModified(FileTime from, FileTime to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth) {
+        FileTime modified = attrs.lastModifiedTime();
+        return modified.compareTo(from) >= 0 && modified.compareTo(to) <= 0;
+    }
+}
+
+/**
+ * Like find -xdev: does not cross into other mounted file systems.
+ * Compares the "unix:dev" attribute of each directory where the file system supports the unix
+ * view; Files.getFileStore re-reads the mount table, so it is only the fallback elsewhere.
+ */
+class DirectoryRuleSameFileSystem implements DirectoryRule {
+    private final Object device;   // null without the unix view
+    private final FileStore store;
+
+    DirectoryRuleSameFileSystem(Path baseDir) {
+        try {
+            boolean unix = baseDir.getFileSystem().supportedFileAttributeViews().contains("unix");
+            this.device = unix ? Files.getAttribute(baseDir, "unix:dev") : null;
+            this.store = device == null ? Files.getFileStore(baseDir) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth) {
+        try {
+            if (device != null) {
+                return device.equals(Files.getAttribute(dir, "unix:dev", LinkOption.NOFOLLOW_LINKS));
+            }
+            return store.equals(Files.getFileStore(dir));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
+
+class DirectoryRuleAnd implements DirectoryRule {
+    private final List<DirectoryRule> rules;
+
+    DirectoryRuleAnd(List<DirectoryRule> rules) {
+        this.rules = rules;
+    }
+
+    @Override
+    public boolean descend(Path dir, BasicFileAttributes attrs, int depth) {
+        for (DirectoryRule rule: rules) {
+            if (!rule.descend(dir, attrs, depth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+/**
+ * Turns a rule tree into a plan that runs cheap, decisive rules first.
+ *
+ * - And inside And (and Or inside Or) is flattened into a single node
+ * - the children of a node are ordered by cost divided by the chance to short-circuit: an And
+ *   child short-circuits when it fails, an Or child when it matches
+ * - costs come from FileRule.cost(); pass rates start at 50% and are re-estimated from the
+ *   actual evaluations, the order being recomputed about every REORDER_INTERVAL matches
+ *
+ * The plan is safe to share between threads, counters are LongAdders and the order is
+ * swapped as a whole.
+ */
+class RulePlanner {
+    static final int REORDER_INTERVAL = 1024;
+
+    static FileRule compile(FileRule rule) {
+        if (rule instanceof FileRuleAnd) {
+            return new PlannedRule(rule, true, flatten(((FileRuleAnd) rule).rules(), true));
+        }
+        if (rule instanceof FileRuleOr) {
+            return new PlannedRule(rule, false, flatten(((FileRuleOr) rule).rules(), false));
+        }
+        return rule;
     }
-}
\ No newline at end of file
+
+    private static List<FileRule> flatten(List<FileRule> rules, boolean and) {
+        List<FileRule> flat = new ArrayList<>();
+        for (FileRule rule: rules) {
+            if (and && rule instanceof FileRuleAnd) {
+                flat.addAll(flatten(((FileRuleAnd) rule).rules(), true));
+            } else if (!and && rule instanceof FileRuleOr) {
+                flat.addAll(flatten(((FileRuleOr) rule).rules(), false));
+            } else {
+                flat.add(compile(rule));
+            }
+        }
+        return flat;
+    }
+
+    /**
+     * One child of a planned node with its observed pass rate
+     */
+    static final class Step {
+        final FileRule rule;
+        final double cost;
+        final LongAdder evaluated = new LongAdder();
+        final LongAdder matched = new LongAdder();
+
+        Step(FileRule rule) {
+            this.rule = rule;
+            this.cost = Math.max(rule.cost(), 1e-3);
+        }
+
+        double rank(boolean and) {
+            // Laplace estimate, so a fresh step counts as 50%
+            double passRate = (matched.sum() + 1.0) / (evaluated.sum() + 2.0);
+            return cost / (and ? 1 - passRate : passRate);
+        }
+    }
+
+    static final class PlannedRule implements FileRule {
+        private final FileRule original;
+        private final boolean and;
+        private final Step[] steps;
+        private volatile Step[] order;
+
+        PlannedRule(FileRule original, boolean and, List<FileRule> children) {
+            this.original = original;
+            this.and = and;
+            this.steps = new Step[children.size()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = new Step(children.get(i));
+            }
+            reorder();
+        }
+
+        @Override
+        public boolean match(Path path, BasicFileAttributes attrs) {
+            if (ThreadLocalRandom.current().nextInt(REORDER_INTERVAL) == 0) {
+                reorder();
+            }
+            for (Step step: order) {
+                boolean matched = step.rule.match(path, attrs);
+                step.evaluated.increment();
+                if (matched) {
+                    step.matched.increment();
+                }
+                if (matched != and) {
+                    // a failed And child or a matching Or child decides the node
+                    return matched;
+                }
+            }
+            return and;
+        }
+
+        private void reorder() {
+            Step[] next = steps.clone();
+            double[] ranks = new double[next.length];
+            for (int i = 0; i < next.length; i++) {
+                ranks[i] = next[i].rank(and);
+            }
+            Integer[] byRank = new Integer[next.length];
+            for (int i = 0; i < byRank.length; i++) {
+                byRank[i] = i;
+            }
+            Arrays.sort(byRank, Comparator.comparingDouble(i -> ranks[i]));
+            for (int i = 0; i < next.length; i++) {
+                next[i] = steps[byRank[i]];
+            }
+            order = next;
+        }
+
+        @Override
+        public int[] candidates(FileIndex index) {
+            return original.candidates(index);
+        }
+
+        @Override
+        public double cost() {
+            return original.cost();
+        }
+
+        /**
+         * Child rules in their current evaluation order
+         */
+        List<FileRule> order() {
+            List<FileRule> rules = new ArrayList<>();
+            for (Step step: order) {
+                rules.add(step.rule);
+            }
+            return rules;
+        }
+    }
+}
+
+/**
+ * Snapshot of the files under a root (relative path, size, mtime), saved to disk so that
+ * repeated queries do not walk the file system again.
+ *
+ * - byExtension: extension after the last dot -> sorted entry ids
+ * - bySize: entry ids ordered by size, with the sizes alongside for binary search
+ *
+ * Rules narrow the candidates through FileRule.candidates and every candidate is still checked
+ * with rule.match, so a rule that cannot use the index simply scans the entries in memory.
+ */
+class FileIndex {
+    private static final int MAGIC = 0x46494458; // "FIDX"
+    private static final int VERSION = 1;
+
+    private static final byte REGULAR = 0;
+    private static final byte SYMBOLIC_LINK = 1;
+    private static final byte OTHER = 2;
+
+    private final Path root;
+    private final String[] paths;       // relative to root
+    private final long[] sizes;
+    private final long[] modifiedTimes; // millis
+    private final byte[] types;
+
+    private final Map<String, int[]> byExtension = new HashMap<>();
+    private final int[] bySize;
+    private final long[] sortedSizes;
+    private final int[] byModified;
+    private final long[] sortedModified;
+
+    private FileIndex(Path root, String[] paths, long[] sizes, long[] modifiedTimes, byte[] types) {
+        this.root = root;
+        this.paths = paths;
+        this.sizes = sizes;
+        this.modifiedTimes = modifiedTimes;
+        this.types = types;
+
+        Map<String, List<Integer>> extensions = new HashMap<>();
+        for (int id = 0; id < paths.length; id++) {
+            extensions.computeIfAbsent(extensionOf(paths[id]), e -> new ArrayList<>()).add(id);
+        }
+        for (Map.Entry<String, List<Integer>> e: extensions.entrySet()) {
+            byExtension.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        this.bySize = orderBy(sizes);
+        this.sortedSizes = sortedBy(bySize, sizes);
+        this.byModified = orderBy(modifiedTimes);
+        this.sortedModified = sortedBy(byModified, modifiedTimes);
+    }
+
+    // entry ids ordered by the given value
+    private static int[] orderBy(long[] values) {
+        return IntStream.range(0, values.length).boxed()
+                .sorted(Comparator.comparingLong(id -> values[id]))
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    private static long[] sortedBy(int[] order, long[] values) {
+        long[] sorted = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = values[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Size, mtime and type of one file, as stored in the index
+     */
+    static final class Metadata {
+        final long size;
+        final long modifiedTime; // millis
+        final byte type;
+
+        Metadata(BasicFileAttributes attrs) {
+            this(attrs.size(), attrs.lastModifiedTime().toMillis(), typeOf(attrs));
+        }
+
+        Metadata(long size, long modifiedTime, byte type) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Metadata)) {
+                return false;
+            }
+            Metadata other = (Metadata) o;
+            return size == other.size && modifiedTime == other.modifiedTime && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modifiedTime, type);
+        }
+    }
+
+    /**
+     * Walks the tree once and records every file (directories themselves are not indexed)
+     */
+    static FileIndex build(Path root) {
+        Map<String, Metadata> entries = new HashMap<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    entries.put(root.relativize(file).toString(), new Metadata(attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return of(root, entries);
+    }
+
+    /**
+     * Index over the given entries, keyed by path relative to root; ids follow path order.
+     * The entries are read exactly once, so they may change concurrently (see LiveFileIndex).
+     */
+    static FileIndex of(Path root, Map<String, Metadata> entries) {
+        TreeMap<String, Metadata> sorted = new TreeMap<>(entries);
+        int n = sorted.size();
+        String[] paths = new String[n];
+        long[] sizes = new long[n];
+        long[] modifiedTimes = new long[n];
+        byte[] types = new byte[n];
+        int id = 0;
+        for (Map.Entry<String, Metadata> entry : sorted.entrySet()) {
+            Metadata metadata = entry.getValue();
+            paths[id] = entry.getKey();
+            sizes[id] = metadata.size;
+            modifiedTimes[id] = metadata.modifiedTime;
+            types[id] = metadata.type;
+            id++;
+        }
+        return new FileIndex(root, paths, sizes, modifiedTimes, types);
+    }
+
+    /**
+     * Writes the index next to its final name and moves it over atomically,
+     * so a reader never sees a half-written index
+     */
+    void save(Path indexFile) {
+        Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.toString());
+            out.writeInt(paths.length);
+            for (int id = 0; id < paths.length; id++) {
+                out.writeUTF(paths[id]);
+                out.writeLong(sizes[id]);
+                out.writeLong(modifiedTimes[id]);
+                out.writeByte(types[id]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static FileIndex load(Path indexFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a FileIndex: " + indexFile);
+            }
+            Path root = Path.of(in.readUTF());
+            int n = in.readInt();
+            String[] paths = new String[n];
+            long[] sizes = new long[n];
+            long[] modifiedTimes = new long[n];
+            byte[] types = new byte[n];
+            for (int id = 0; id < n; id++) {
+                paths[id] = in.readUTF();
+                sizes[id] = in.readLong();
+                modifiedTimes[id] = in.readLong();
+                types[id] = in.readByte();
+            }
+            return new FileIndex(root, paths, sizes, modifiedTimes, types);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path root() {
+        return root;
+    }
+
+    int size() {
+        return paths.length;
+    }
+
+    /**
+     * Indexed files matching the rule, answered from memory
+     */
+    Stream<Path> find(FileRule rule) {
+        FileRule plan = RulePlanner.compile(rule);
+        int[] ids = plan.candidates(this);
+        IntStream candidates = ids != null ? IntStream.of(ids) : IntStream.range(0, paths.length);
+        return candidates
+                .filter(id -> plan.match(root.resolve(paths[id]), attributesOf(id)))
+                .mapToObj(id -> root.resolve(paths[id]));
+    }
+
+    int[] withExtension(String ext) {
+        int[] ids = byExtension.get(ext);
+        return ids == null ? new int[0] : ids;
+    }
+
+    /**
+     * Ids of files with minSize <= size <= maxSize, sorted ascending
+     */
+    int[] sizeBetween(long minSize, long maxSize) {
+        return between(bySize, sortedSizes, minSize, maxSize);
+    }
+
+    /**
+     * Ids of files with min <= mtime (millis) <= max, sorted ascending
+     */
+    int[] modifiedBetween(long min, long max) {
+        return between(byModified, sortedModified, min, max);
+    }
+
+    private static int[] between(int[] order, long[] sorted, long min, long max) {
+        if (min > max) {
+            return new int[0];
+        }
+        int from = lowerBound(sorted, min);
+        int to = max == Long.MAX_VALUE ? sorted.length : lowerBound(sorted, max + 1);
+        int[] ids = Arrays.copyOfRange(order, from, to);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // first position whose value is >= value
+    private static int lowerBound(long[] sorted, long value) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    static String extensionOf(String path) {
+        int slash = path.lastIndexOf(java.io.File.separatorChar);
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(dot + 1) : "";
+    }
+
+    static byte typeOf(BasicFileAttributes attrs) {
+        return attrs.isRegularFile() ? REGULAR : attrs.isSymbolicLink() ? SYMBOLIC_LINK : OTHER;
+    }
+
+    /**
+     * Stored metadata in the shape rules expect; times other than mtime are not kept
+     */
+    private BasicFileAttributes attributesOf(int id) {
+        long size = sizes[id];
+        FileTime modified = FileTime.fromMillis(modifiedTimes[id]);
+        byte type = types[id];
+        return new BasicFileAttributes() {
+            public FileTime lastModifiedTime() {
+                return modified;
+            }
+
+            public FileTime lastAccessTime() {
+                return modified;
+            }
+
+            public FileTime creationTime() {
+                return modified;
+            }
+
+            public boolean isRegularFile() {
+                return type == REGULAR;
+            }
+
+            public boolean isDirectory() {
+                return false;
+            }
+
+            public boolean isSymbolicLink() {
+                return type == SYMBOLIC_LINK;
+            }
+
+            public boolean isOther() {
+                return type == OTHER;
+            }
+
+            public long size() {
+                return size;
+            }
+
+            public Object fileKey() {
+                return null;
+            }
+        };
+    }
+}
+
+/**
+ * FileIndex that follows the disk: a WatchService thread applies create/modify/delete events
+ * to a map of file metadata, and queries run on a FileIndex snapshot that is rebuilt only
+ * after something changed.
+ *
+ * - every directory is registered with the watch service; a new directory is registered first
+ *   and scanned afterwards, so files created in it before registration are not missed
+ * - when the event queue overflows, the tree is walked again and only entries whose mtime or
+ *   size changed, or that disappeared, are updated
+ * - an event that fails to apply is followed by the same walk; if that fails too, queries report
+ *   the failure until a later walk succeeds, and the event thread keeps running either way
+ */
+class LiveFileIndex implements Closeable {
+    private final Path root;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Map<String, FileIndex.Metadata> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();   // bumped on every change to entries
+    private final Thread eventThread;
+    private volatile RuntimeException failure;            // last failed walk, null once one succeeds
+
+    private FileIndex snapshot;
+    private long snapshotVersion = -1;
+
+    private LiveFileIndex(Path root) throws IOException {
+        this.root = root;
+        this.watcher = root.getFileSystem().newWatchService();
+        scan(root, null);
+        this.eventThread = new Thread(this::processEvents, "live-file-index");
+        this.eventThread.setDaemon(true);
+        this.eventThread.start();
+    }
+
+    static LiveFileIndex watch(Path root) {
+        try {
+            return new LiveFileIndex(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Indexed files matching the rule, as of the last processed event
+     */
+    Stream<Path> find(FileRule rule) {
+        return snapshot().find(rule);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    synchronized FileIndex snapshot() {
+        RuntimeException failed = failure;
+        if (failed != null) {
+            throw new IllegalStateException("Index is out of date for " + root, failed);
+        }
+        long current = version.get();
+        if (snapshot == null || snapshotVersion != current) {
+            snapshot = FileIndex.of(root, entries);
+            snapshotVersion = current;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Registers and records everything under dir; seen collects the visited files (may be null)
+     */
+    private void scan(Path dir, Set<String> seen) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    // register before listing, so an entry created meanwhile still produces an event
+                    watchedDirs.put(d.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String key = root.relativize(file).toString();
+                    record(key, new FileIndex.Metadata(attrs));
+                    if (seen != null) {
+                        seen.add(key);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // the directory went away or cannot be watched; a later event or overflow fixes it up
+        }
+    }
+
+    private void record(String key, FileIndex.Metadata metadata) {
+        if (!metadata.equals(entries.put(key, metadata))) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets path and, if it was a directory, everything below it
+     */
+    private void forget(Path path) {
+        String key = root.relativize(path).toString();
+        String prefix = key + path.getFileSystem().getSeparator();
+        boolean changed = entries.remove(key) != null;
+        changed |= entries.keySet().removeIf(k -> k.startsWith(prefix));
+        if (changed) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Full walk after lost events: refreshes changed entries and drops the vanished ones
+     */
+    private void reconcile() {
+        Set<String> seen = new HashSet<>();
+        scan(root, seen);
+        if (entries.keySet().removeIf(k -> !seen.contains(k))) {
+            version.incrementAndGet();
+        }
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (failure != null) {
+                recover();
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event: key.pollEvents()) {
+                try {
+                    if (event.kind() == OVERFLOW) {
+                        reconcile();
+                    } else if (dir != null) {
+                        apply(dir.resolve((Path) event.context()), event.kind());
+                    }
+                } catch (RuntimeException e) {
+                    // whatever this event changed is unknown now; a walk finds it
+                    recover();
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+        }
+    }
+
+    private void apply(Path child, WatchEvent.Kind<?> kind) {
+        BasicFileAttributes attrs = kind == ENTRY_DELETE ? null : FindFile.readAttributes(child);
+        if (attrs == null) {
+            forget(child);
+        } else if (!attrs.isDirectory()) {
+            record(root.relativize(child).toString(), new FileIndex.Metadata(attrs));
+        } else if (kind == ENTRY_CREATE) {
+            scan(child, null);
+        }
+        // a modified directory only had entries added or removed, and those report themselves
+    }
+
+    private void recover() {
+        try {
+            reconcile();
+            failure = null;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Stops watching; the event thread exits once the watch service is closed
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
+
+/**
+ * Finds groups of files with identical content, reading as little as possible:
+ *
+ * 1. group the files by size (from the walk, no extra I/O); a size seen once has no duplicate
+ * 2. within a size group, hash the first and last PARTIAL_BYTES; files that differ at either
+ *    end split off here, which is most non-duplicates, for two small reads per file
+ * 3. only files still grouped and larger than both ends together get a full streaming SHA-256
+ *
+ * Each hashing stage runs as one parallel job over the files of all groups.
+ *
+ * Empty files are skipped. Hashes are SHA-256, so files in one group are treated as equal
+ * without a final byte-by-byte comparison.
+ */
+class DuplicateFinder {
+    static final int PARTIAL_BYTES = 4096;
+    static final int READ_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_BUFFER));
+
+    static List<List<Path>> find(Path baseDir, FileRule rule, DirectoryRule dirRule, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+        }
+        Map<Long, List<Path>> bySize = new HashMap<>();
+        FindFile.walk(baseDir, RulePlanner.compile(rule), dirRule, (path, attrs) -> {
+            if (attrs.isRegularFile() && attrs.size() > 0) {
+                bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(path);
+            }
+        });
+        List<Group> sameSize = new ArrayList<>();
+        for (Map.Entry<Long, List<Path>> group: bySize.entrySet()) {
+            if (group.getValue().size() > 1) {
+                sameSize.add(new Group(group.getKey(), group.getValue()));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Group> duplicates = new ArrayList<>();
+            List<Group> unsure = new ArrayList<>();
+            for (Group group: splitByHash(pool, sameSize, DuplicateFinder::partialHash)) {
+                if (group.size <= 2L * PARTIAL_BYTES) {
+                    // both ends together already covered the whole file
+                    duplicates.add(group);
+                } else {
+                    unsure.add(group);
+                }
+            }
+            duplicates.addAll(splitByHash(pool, unsure, (path, size) -> fullHash(path)));
+            // largest files first, they waste the most space
+            duplicates.sort(Comparator.comparingLong((Group group) -> group.size).reversed());
+
+            List<List<Path>> result = new ArrayList<>();
+            for (Group group: duplicates) {
+                result.add(group.paths);
+            }
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Files of one size, as seen by the walk; the size is never read again
+     */
+    private static final class Group {
+        final long size;
+        final List<Path> paths;
+
+        Group(long size, List<Path> paths) {
+            this.size = size;
+            this.paths = paths;
+        }
+    }
+
+    interface Hasher {
+        String hash(Path path, long size);
+    }
+
+    /**
+     * Hashes the files of all groups as one job on the pool, so many small groups still keep
+     * every worker busy, and splits each group into the files with equal hashes. Only groups
+     * of two or more are kept; files that cannot be read (hash null) are dropped.
+     */
+    private static List<Group> splitByHash(ForkJoinPool pool, List<Group> groups, Hasher hasher) {
+        List<Path> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (Group group: groups) {
+            for (Path path: group.paths) {
+                files.add(path);
+                sizes.add(group.size);
+            }
+        }
+        // an ordered parallel stream keeps hashes[i] in step with files[i]
+        List<String> hashes = pool.submit(() -> IntStream.range(0, files.size()).parallel()
+                .mapToObj(i -> hasher.hash(files.get(i), sizes.get(i)))
+                .collect(Collectors.toList())).join();
+
+        List<Group> split = new ArrayList<>();
+        int i = 0;
+        for (Group group: groups) {
+            Map<String, List<Path>> byHash = new TreeMap<>();
+            for (Path path: group.paths) {
+                String hash = hashes.get(i++);
+                if (hash != null) {
+                    byHash.computeIfAbsent(hash, h -> new ArrayList<>()).add(path);
+                }
+            }
+            for (List<Path> paths: byHash.values()) {
+                if (paths.size() > 1) {
+                    split.add(new Group(group.size, paths));
+                }
+            }
+        }
+        return split;
+    }
+
+    private static String partialHash(Path path, long size) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MessageDigest digest = sha256();
+            ByteBuffer buffer = BUFFER.get();
+            update(digest, channel, buffer, 0, Math.min(size, PARTIAL_BYTES));
+            if (size > PARTIAL_BYTES) {
+                long tail = Math.max(PARTIAL_BYTES, size - PARTIAL_BYTES);
+                update(digest, channel, buffer, tail, size - tail);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String fullHash(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MessageDigest digest = sha256();
+            update(digest, channel, BUFFER.get(), 0, channel.size());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // feeds length bytes starting at position into the digest, one buffer at a time
+    private static void update(MessageDigest digest, FileChannel channel, ByteBuffer buffer, long position, long length)
+            throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                // file shrank while hashing
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
+
+/**
+ * Every walk stats every entry exactly once (listFiles() + isDirectory() + length() used to
+ * cost a directory read plus two stats per file). Symbolic links are not followed: a link
+ * is matched with its own attributes and a linked directory is not descended into.
+ */
+public class FindFile {
+
+    public static Stream<Path> find(File baseDir, FileRule rule) {
+        return find(baseDir.toPath(), rule);
+    }
+
+    /**
+     * Sequential depth-first walk, hands every matching file to the consumer.
+     * Files.walkFileTree reads the attributes while listing and passes them on.
+     */
+    static void walk(Path baseDir, FileRule rule, Consumer<Path> matches) {
+        walk(baseDir, rule, DirectoryRule.ALL, matches);
+    }
+
+    static void walk(Path baseDir, FileRule rule, DirectoryRule dirRule, Consumer<Path> matches) {
+        walk(baseDir, rule, dirRule, (path, attrs) -> matches.accept(path));
+    }
+
+    /**
+     * Sequential walk that also hands over the attributes of every match
+     */
+    static void walk(Path baseDir, FileRule rule, DirectoryRule dirRule, BiConsumer<Path, BasicFileAttributes> matches) {
+        try {
+            Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(baseDir) && !dirRule.descend(dir, attrs, baseDir.relativize(dir).getNameCount())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (rule.match(file, attrs)) {
+                        matches.accept(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // unreadable entry or directory, skip it
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Lazy search: the tree is walked only as far as the stream is consumed, so limit(n) or
+     * findFirst stop the walk early. Memory stays bounded by the tree depth (one open directory
+     * per level), not by the tree size. Close the stream (try-with-resources) if it is not
+     * consumed to the end, to release the open directories.
+     *
+     *   find(dir, rule).forEach(System.out::println);
+     */
+    public static Stream<Path> find(Path baseDir, FileRule rule) {
+        return find(baseDir, rule, DirectoryRule.ALL);
+    }
+
+    /**
+     * Lazy search that only descends into the subdirectories dirRule accepts
+     */
+    public static Stream<Path> find(Path baseDir, FileRule rule, DirectoryRule dirRule) {
+        MatchIterator iterator = new MatchIterator(baseDir, rule, dirRule);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Walks baseDir once and saves its file metadata to indexFile, for find(FileIndex, FileRule)
+     */
+    public static FileIndex buildIndex(Path baseDir, Path indexFile) {
+        FileIndex index = FileIndex.build(baseDir);
+        index.save(indexFile);
+        return index;
+    }
+
+    /**
+     * Answers the rule from a previously built index instead of the disk; results are as
+     * fresh as the index
+     */
+    public static Stream<Path> find(FileIndex index, FileRule rule) {
+        return index.find(rule);
+    }
+
+    /**
+     * Indexes baseDir and keeps the index up to date from file system events; close it when done
+     */
+    public static LiveFileIndex watch(Path baseDir) {
+        return LiveFileIndex.watch(baseDir);
+    }
+
+    /**
+     * Answers the rule from a live index, which trails the disk only by the event delivery delay
+     */
+    public static Stream<Path> find(LiveFileIndex index, FileRule rule) {
+        return index.find(rule);
+    }
+
+    /**
+     * Groups of files under baseDir with identical content, largest files first
+     */
+    public static List<List<Path>> findDuplicates(Path baseDir) {
+        return findDuplicates(baseDir, (path, attrs) -> true, DirectoryRule.ALL,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Groups of identical files among those matching rule; parallelism caps the hashing threads
+     */
+    public static List<List<Path>> findDuplicates(Path baseDir, FileRule rule, DirectoryRule dirRule, int parallelism) {
+        return DuplicateFinder.find(baseDir, rule, dirRule, parallelism);
+    }
+
+    /**
+     * Lazy search as an iterator; close it when stopping before the end
+     */
+    public static MatchIterator iterator(Path baseDir, FileRule rule) {
+        return new MatchIterator(baseDir, rule, DirectoryRule.ALL);
+    }
+
+    /**
+     * Lazy search as a Flow publisher on the common pool
+     */
+    public static Flow.Publisher<Path> publisher(Path baseDir, FileRule rule) {
+        return publisher(baseDir, rule, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lazy search as a Flow publisher: every subscriber gets its own walk, run on the executor,
+     * that only advances as far as the subscriber has requested (backpressure), plus one match
+     * ahead to see whether the walk is over
+     */
+    public static Flow.Publisher<Path> publisher(Path baseDir, FileRule rule, Executor executor) {
+        return subscriber -> new MatchSubscription(new MatchIterator(baseDir, rule, DirectoryRule.ALL), subscriber, executor).start();
+    }
+
+    /**
+     * Depth-first walk that produces one match per call. Keeps a stack of open directory
+     * streams, one per level; DirectoryStream itself reads entries lazily, so even a huge
+     * directory is never loaded at once.
+     */
+    static class MatchIterator implements Iterator<Path>, Closeable {
+        private final FileRule rule;
+        private final DirectoryRule dirRule;
+        private final Deque<DirectoryStream<Path>> open = new ArrayDeque<>();
+        private final Deque<Iterator<Path>> pending = new ArrayDeque<>();
+        private Path next;
+        private boolean done;
+
+        MatchIterator(Path baseDir, FileRule rule, DirectoryRule dirRule) {
+            this.rule = RulePlanner.compile(rule);
+            this.dirRule = dirRule;
+            BasicFileAttributes attrs = readAttributes(baseDir);
+            if (attrs == null) {
+                done = true;
+            } else if (attrs.isDirectory()) {
+                push(baseDir);
+            } else if (this.rule.match(baseDir, attrs)) {
+                next = baseDir;
+            }
+        }
+
+        private void push(Path dir) {
+            try {
+                DirectoryStream<Path> children = Files.newDirectoryStream(dir);
+                open.push(children);
+                pending.push(children.iterator());
+            } catch (IOException e) {
+                // unreadable directory, skip it
+            }
+        }
+
+        private void pop() {
+            pending.pop();
+            closeQuietly(open.pop());
+        }
+
+        private Path advance() {
+            while (!pending.isEmpty()) {
+                Iterator<Path> children = pending.peek();
+                Path child;
+                try {
+                    if (!children.hasNext()) {
+                        pop();
+                        continue;
+                    }
+                    child = children.next();
+                } catch (DirectoryIteratorException e) {
+                    pop();
+                    continue;
+                }
+                BasicFileAttributes attrs = readAttributes(child);
+                if (attrs == null) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    // one open directory per level, so the child's depth is the stack size
+                    if (dirRule.descend(child, attrs, pending.size())) {
+                        push(child);
+                    }
+                } else if (rule.match(child, attrs)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = advance();
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path match = next;
+            next = null;
+            return match;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            pending.clear();
+            while (!open.isEmpty()) {
+                closeQuietly(open.pop());
+            }
+        }
+
+        private static void closeQuietly(Closeable c) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing left to do with this directory
+            }
+        }
+    }
+
+    /**
+     * Drives a MatchIterator for one subscriber. request() only adds demand; a single drain
+     * task at a time (guarded by wip) walks and emits, so onNext calls never overlap.
+     */
+    static class MatchSubscription implements Flow.Subscription, Runnable {
+        private final MatchIterator iterator;
+        private final Flow.Subscriber<? super Path> subscriber;
+        private final Executor executor;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        MatchSubscription(MatchIterator iterator, Flow.Subscriber<? super Path> subscriber, Executor executor) {
+            this.iterator = iterator;
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Illegal request: " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                while (!cancelled && error == null) {
+                    Path match;
+                    try {
+                        // checked even without demand: onComplete needs none
+                        if (!iterator.hasNext()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                            break;
+                        }
+                        if (demand.get() == 0) {
+                            break;
+                        }
+                        match = iterator.next();
+                    } catch (RuntimeException e) {
+                        error = e;
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(match);
+                }
+                if (error != null && !cancelled) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                }
+                if (cancelled) {
+                    // terminal: wip is left non-zero, so no further drain is ever scheduled
+                    iterator.close();
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * Parallel walk with one worker per available processor
+     */
+    public static List<Path> findParallel(Path baseDir, FileRule rule) {
+        return findParallel(baseDir, rule, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parallel walk: every subdirectory becomes a fork/join task, so idle workers steal whole
+     * directories from busy ones instead of waiting on one thread's directory reads.
+     * Finds the same files as find, in no particular order.
+     *
+     * parallelism caps the number of worker threads. Listing a directory is mostly waiting on
+     * the file system, so for slow mounts (NFS) a cap well above the core count pays off.
+     */
+    public static List<Path> findParallel(Path baseDir, FileRule rule, int parallelism) {
+        return findParallel(baseDir, rule, DirectoryRule.ALL, parallelism);
+    }
+
+    /**
+     * Parallel walk that only descends into the subdirectories dirRule accepts.
+     * dirRule is shared by the workers like the file rule.
+     */
+    public static List<Path> findParallel(Path baseDir, FileRule rule, DirectoryRule dirRule, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+        }
+        rule = RulePlanner.compile(rule);
+        BasicFileAttributes attrs = readAttributes(baseDir);
+        if (attrs == null) {
+            return new ArrayList<>();
+        }
+        if (!attrs.isDirectory()) {
+            List<Path> single = new ArrayList<>();
+            if (rule.match(baseDir, attrs)) {
+                single.add(baseDir);
+            }
+            return single;
+        }
+        ConcurrentLinkedQueue<Path> matches = new ConcurrentLinkedQueue<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(baseDir, 0, rule, dirRule, matches));
+        } finally {
+            pool.shutdown();
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * Reads the attributes of a path without following links, or null if it cannot be read
+     */
+    static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Matches the files of one directory and forks a task per subdirectory
+     */
+    static class DirectoryTask extends RecursiveAction {
+        private final Path dir;
+        private final int depth;
+        private final FileRule rule;
+        private final DirectoryRule dirRule;
+        private final Queue<Path> matches;
+
+        DirectoryTask(Path dir, int depth, FileRule rule, DirectoryRule dirRule, Queue<Path> matches) {
+            this.dir = dir;
+            this.depth = depth;
+            this.rule = rule;
+            this.dirRule = dirRule;
+            this.matches = matches;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child: children) {
+                    BasicFileAttributes attrs = readAttributes(child);
+                    if (attrs == null) {
+                        // deleted or unreadable since the directory was listed
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (dirRule.descend(child, attrs, depth + 1)) {
+                            subdirs.add(new DirectoryTask(child, depth + 1, rule, dirRule, matches));
+                        }
+                    } else if (rule.match(child, attrs)) {
+                        matches.add(child);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // unreadable directory, keep whatever was listed before the failure
+            }
+            invokeAll(subdirs);
+        }
+    }
+
+    /**
+     * Simple testing: builds a small tree in a temp directory and checks that the
+     * parallel walk finds the same files as the sequential one
+     */
+    public static void main(String[] args) throws IOException {
+        Path root = Files.createTempDirectory("findfile");
+        Random random = new Random(42);
+        for (int d = 0; d < 20; d++) {
+            Path dir = Files.createDirectories(root.resolve("dir" + d).resolve("sub" + (d % 3)));
+            for (int i = 0; i < 50; i++) {
+                String name = "file" + i + (i % 4 == 0 ? ".txt" : ".log");
+                Files.write(dir.resolve(name), new byte[random.nextInt(2048)]);
+            }
+        }
+
+        FileRule rule = new FileRuleAnd(Arrays.asList(
+                new FileRuleExtension("txt"),
+                new FileRuleSize(1024, FileRuleSize.FileRuleSizeOp.GT)));
+
+        List<Path> sequential = new ArrayList<>();
+        walk(root, rule, sequential::add);
+
+        // an unknown (so assumed expensive) rule written first still only runs on .txt files
+        LongAdder expensiveCalls = new LongAdder();
+        FileRule expensive = (path, attrs) -> {
+            expensiveCalls.increment();
+            return attrs.size() % 2 == 0;
+        };
+        try (Stream<Path> matches = find(root, new FileRuleAnd(Arrays.asList(expensive, new FileRuleExtension("txt"))))) {
+            System.out.println("Even-sized txt files: " + matches.count() + ", expensive rule ran " + expensiveCalls.sum() + " times");
+        }
+        List<Path> parallel = findParallel(root, rule, 8);
+        if (!new HashSet<>(sequential).equals(new HashSet<>(parallel)) || sequential.size() != parallel.size()) {
+            throw new IllegalStateException("Parallel walk found " + parallel.size() + " files, sequential " + sequential.size());
+        }
+        System.out.println("Matches: " + parallel.size());
+
+        // .git is skipped without being listed; sub* directories sit at depth 2
+        Path git = Files.createDirectories(root.resolve("dir0").resolve(".git").resolve("objects"));
+        Files.write(git.resolve("pack.txt"), new byte[2000]);
+        DirectoryRule pruned = new DirectoryRuleAnd(Arrays.asList(new DirectoryRuleExclude(".git"), new DirectoryRuleMaxDepth(3)));
+        List<Path> prunedParallel = findParallel(root, rule, pruned, 8);
+        try (Stream<Path> prunedLazy = find(root, rule, pruned)) {
+            if (prunedParallel.size() != parallel.size() || prunedLazy.count() != parallel.size()) {
+                throw new IllegalStateException("Pruned walk found " + prunedParallel.size() + " files, expected " + parallel.size());
+            }
+        }
+        try (Stream<Path> shallow = find(root, rule, new DirectoryRuleMaxDepth(2))) {
+            System.out.println("Pruned: " + prunedParallel.size() + ", above depth 3: " + shallow.count());
+        }
+        deleteTree(root.resolve("dir0").resolve(".git").toFile());
+
+        // content is only read for .txt files; the binary file with the same text never matches
+        Path notes = Files.createDirectories(root.resolve("notes"));
+        Files.write(notes.resolve("todo.txt"), "fix the parser\nTODO: release".getBytes(StandardCharsets.UTF_8));
+        Files.write(notes.resolve("done.txt"), "released".getBytes(StandardCharsets.UTF_8));
+        Files.write(notes.resolve("blob.txt"), "\0\0TODO: release".getBytes(StandardCharsets.UTF_8));
+        byte[] large = new byte[3 * ContentRule.SMALL_FILE];
+        Arrays.fill(large, (byte) 'x');
+        System.arraycopy("FIXME".getBytes(StandardCharsets.UTF_8), 0, large, large.length - 5, 5);
+        Files.write(notes.resolve("large.txt"), large);
+        try (Stream<Path> todo = find(notes, new FileRuleAnd(Arrays.asList(
+                     new FileRuleContent("TODO", "FIXME"), new FileRuleExtension("txt"))));
+             Stream<Path> release = find(notes, new FileRuleContentRegex("TODO:\\s+rel"))) {
+            System.out.println("Content: " + todo.count() + " with TODO/FIXME, " + release.count() + " by regex");
+        }
+        deleteTree(notes.toFile());
+
+        // same size, same first and last 4KB, different middle: only the full hash tells them apart
+        Path copies = Files.createDirectories(root.resolve("copies"));
+        byte[] big = new byte[5 * DuplicateFinder.PARTIAL_BYTES];
+        random.nextBytes(big);
+        Files.write(copies.resolve("a.bin"), big);
+        Files.write(copies.resolve("b.bin"), big);
+        big[big.length / 2]++;
+        Files.write(copies.resolve("c.bin"), big);
+        Files.copy(sequential.get(0), copies.resolve("copy.txt"));
+        List<List<Path>> duplicates = findDuplicates(copies.getParent());
+        if (duplicates.isEmpty() || duplicates.get(0).size() != 2 || !duplicates.get(0).get(0).getFileName().toString().matches("[ab].bin")) {
+            throw new IllegalStateException("Unexpected duplicates: " + duplicates);
+        }
+        System.out.println("Duplicate groups: " + duplicates.size() + ", largest " + duplicates.get(0).size() + " files");
+        deleteTree(copies.toFile());
+
+        // one pass: name glob, name regex, size range and age together
+        FileRule combined = new FileRuleAnd(Arrays.asList(
+                new FileRuleGlob("file*.{txt,log}"),
+                new FileRuleRegex("file[0-9]+\\.txt"),
+                new FileRuleSize(1024, FileRuleSize.FileRuleSizeOp.GTE),
+                new FileRuleAge(Duration.ofDays(1), FileRuleSize.FileRuleSizeOp.LT)));
+        try (Stream<Path> matches = find(root, combined)) {
+            System.out.println("Combined: " + matches.count());
+        }
+
+        try (Stream<Path> matches = find(root, rule)) {
+            System.out.println("First 5: " + matches.limit(5).count());
+        }
+
+        // one match at a time, like a slow consumer would
+        AtomicInteger published = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        publisher(root, rule).subscribe(new Flow.Subscriber<Path>() {
+            private Flow.Subscription subscription;
+
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            public void onNext(Path item) {
+                published.incrementAndGet();
+                subscription.request(1);
+            }
+
+            public void onError(Throwable throwable) {
+                completed.countDown();
+            }
+
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        try {
+            completed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (published.get() != sequential.size()) {
+            throw new IllegalStateException("Publisher emitted " + published.get() + " files, sequential " + sequential.size());
+        }
+        System.out.println("Published: " + published.get());
+
+        // requesting exactly the number of matches still ends with onComplete
+        CountDownLatch exact = new CountDownLatch(1);
+        publisher(root, rule).subscribe(new Flow.Subscriber<Path>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(sequential.size());
+            }
+
+            public void onNext(Path item) {
+            }
+
+            public void onError(Throwable throwable) {
+            }
+
+            public void onComplete() {
+                exact.countDown();
+            }
+        });
+        try {
+            if (!exact.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("No onComplete after exactly " + sequential.size() + " matches");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Path indexFile = Files.createTempFile("findfile", ".idx");
+        buildIndex(root, indexFile);
+        FileIndex index = FileIndex.load(indexFile);
+        List<Path> indexed = new ArrayList<>();
+        find(index, rule).forEach(indexed::add);
+        if (!new HashSet<>(sequential).equals(new HashSet<>(indexed))) {
+            throw new IllegalStateException("Index found " + indexed.size() + " files, sequential " + sequential.size());
+        }
+        System.out.println("Indexed: " + index.size() + ", matches: " + indexed.size());
+        Files.delete(indexFile);
+
+        try (LiveFileIndex live = watch(root)) {
+            long before = find(live, rule).count();
+            Path added = Files.createDirectories(root.resolve("dir0").resolve("new"));
+            Files.write(added.resolve("late.txt"), new byte[2000]);
+            long after = awaitCount(live, rule, before + 1);
+            long inDir1;
+            try (Stream<Path> matches = find(root.resolve("dir1"), rule)) {
+                inDir1 = matches.count();
+            }
+            deleteTree(root.resolve("dir1").toFile());
+            long removed = awaitCount(live, rule, after - inDir1);
+            if (after != before + 1 || removed != after - inDir1) {
+                throw new IllegalStateException("Live index missed changes: " + before + " -> " + after + " -> " + removed);
+            }
+            System.out.println("Live: " + before + " -> " + after + " -> " + removed);
+        }
+        deleteTree(root.toFile());
+    }
+
+    // waits up to 10 seconds for the live index to reach the expected count; returns the last count
+    private static long awaitCount(LiveFileIndex live, FileRule rule, long expected) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        long count;
+        while ((count = find(live, rule).count()) != expected && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -1,15 +1,78 @@
 package LowLevelDesign.DesignDataStructures;
 
-public class HashMap<K, V> {
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class HashMap<K, V> implements Iterable<Map.Entry<K, V>> {
 
     private static final int INITIAL_SIZE = 1 << 4; // 16
     private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * How the key-value pairs are laid out in memory.
+     * CHAINED keeps one Entry object per key in linked buckets,
+     * OPEN_ADDRESSING keeps keys and values in two parallel arrays and resolves
+     * collisions with linear probing, so lookups scan contiguous slots and an insert
+     * into a non-full table allocates nothing.
+     */
+    public enum Storage {
+        CHAINED, OPEN_ADDRESSING
+    }
+
+    /**
+     * How the table grows once size reaches threshold.
+     * ALL_AT_ONCE rehashes every entry inside the put that crosses the threshold,
+     * INCREMENTAL keeps the old table around and every following put/get moves a
+     * bounded number of its buckets, so no single call pays for the whole rehash.
+     * INCREMENTAL is only available with CHAINED storage.
+     */
+    public enum ResizeMode {
+        ALL_AT_ONCE, INCREMENTAL
+    }
+
+    // buckets moved per put/get while an incremental resize is running;
+    // empty buckets are cheap, so up to 10x as many of them may be skipped
+    private static final int MIGRATE_BUCKETS_PER_OP = 4;
+
+    // a chain this long is indexed by a balanced tree (if its keys are Comparable)
+    private static final int TREEIFY_THRESHOLD = 8;
+    // below this table size long chains are left to the next resize instead
+    private static final int MIN_TREEIFY_CAPACITY = 64;
     
     private float loadFactor;       // e.g. 0.75f
     private int size;               // number of key-value pairs actually stored
     private int threshold;          // when size >= threshold, resize
+    private int modCount;           // bumped on every structural change, lets iterators fail fast
+    private final Storage storage;
+    private final ResizeMode resizeMode;
     
-    private Entry<K, V>[] hashTable;
+    private Entry<K, V>[] hashTable; // used by CHAINED storage
+
+    private Entry<K, V>[] oldTable;  // non-null while an INCREMENTAL resize is in progress
+    private int migrateIndex;        // buckets of oldTable below this index are already moved
+
+    // treeBins[i] != null when bucket i of hashTable is indexed by a red-black tree.
+    // The tree holds every entry of the bucket whose key has the tree's key class;
+    // the chain in hashTable[i] stays complete so resizing works as before.
+    private TreeMap<K, Entry<K, V>>[] treeBins;
+
+    private Object[] keys;           // used by OPEN_ADDRESSING storage, null slot = empty
+    private Object[] values;         // values[i] belongs to keys[i]
 
     /**
      * Default constructor with default capacity 16 and default load factor 0.75
@@ -21,18 +84,48 @@ public class HashMap<K, V> {
     /**
      * Constructor that takes initial capacity and a load factor
      */
-    @SuppressWarnings("unchecked")
     public HashMap(int capacity, float loadFactor) {
+        this(capacity, loadFactor, Storage.CHAINED);
+    }
+
+    /**
+     * Constructor that takes initial capacity, a load factor and the storage layout
+     */
+    public HashMap(int capacity, float loadFactor, Storage storage) {
+        this(capacity, loadFactor, storage, ResizeMode.ALL_AT_ONCE);
+    }
+
+    /**
+     * Constructor that takes initial capacity, a load factor, the storage layout and the resize mode
+     */
+    @SuppressWarnings("unchecked")
+    public HashMap(int capacity, float loadFactor, Storage storage, ResizeMode resizeMode) {
         if (capacity <= 0) {
             throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
         }
         if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
             throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
         }
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage must not be null");
+        }
+        if (resizeMode == null) {
+            throw new IllegalArgumentException("Resize mode must not be null");
+        }
+        if (resizeMode == ResizeMode.INCREMENTAL && storage != Storage.CHAINED) {
+            throw new IllegalArgumentException("Incremental resize requires CHAINED storage");
+        }
         int tableSize = tableSizeFor(capacity);
-        this.hashTable = new Entry[tableSize];
+        this.storage = storage;
+        this.resizeMode = resizeMode;
+        if (storage == Storage.OPEN_ADDRESSING) {
+            this.keys = new Object[tableSize];
+            this.values = new Object[tableSize];
+        } else {
+            this.hashTable = new Entry[tableSize];
+        }
         this.loadFactor = loadFactor;
-        this.threshold = (int) (tableSize * loadFactor);
+        this.threshold = thresholdFor(tableSize);
         this.size = 0;
     }
 
@@ -56,52 +149,140 @@ public class HashMap<K, V> {
         return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
     }
 
+    /**
+     * Number of entries a table of the given length may hold before it has to grow.
+     * Open addressing always keeps at least one empty slot so probing terminates.
+     */
+    private int thresholdFor(int tableSize) {
+        int t = (int) (tableSize * loadFactor);
+        if (storage == Storage.OPEN_ADDRESSING) {
+            t = Math.min(t, tableSize - 1);
+        }
+        return t;
+    }
+
     /**
      * A singly-linked list node for storing key-value pairs
      */
-    class Entry<K, V> {
+    class Entry<K, V> implements Map.Entry<K, V> {
+        final int hash; // cached hash(key), so resizing and lookups don't call hashCode() again
         K key;
         V value;
         Entry<K, V> next;
 
-        Entry(K k, V v) {
+        Entry(int hash, K k, V v) {
+            this.hash = hash;
             this.key = k;
             this.value = v;
         }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V newValue) {
+            V oldValue = value;
+            value = newValue;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
     }
 
     /**
      * Inserts or updates a key-value pair into the map
      */
     public void put(K key, V value) {
+        if (storage == Storage.OPEN_ADDRESSING) {
+            putProbing(key, value);
+            return;
+        }
+
         // 1. Check if resizing is needed BEFORE adding new entry
         if (size >= threshold) {
             resize();
         }
 
+        // 1b. With an incremental resize running, the key may still live in the old table
+        int hash = hash(key);
+        if (oldTable != null) {
+            migrateBucketOf(hash);
+            migrateStep();
+        }
+
         // 2. Compute index
-        int hashCode = indexFor(key, hashTable.length);
+        int hashCode = hash & (hashTable.length - 1);
+
+        // 3a. Long bucket: look the key up in its tree, O(log n)
+        TreeMap<K, Entry<K, V>> tree = treeBinFor(hashCode, key);
+        if (tree != null) {
+            Entry<K, V> existing = tree.get(key);
+            if (existing == null) {
+                Entry<K, V> entry = new Entry<>(hash, key, value);
+                entry.next = hashTable[hashCode];
+                hashTable[hashCode] = entry;
+                tree.put(key, entry);
+                size++;
+                modCount++;
+                return;
+            }
+            if (existing.key.equals(key)) {
+                existing.value = value;
+                return;
+            }
+            // compareTo() and equals() disagree for this key type, the tree can't be trusted
+            treeBins[hashCode] = null;
+        }
 
-        // 3. Traverse or insert
+        // 3b. Traverse or insert
         Entry<K, V> node = hashTable[hashCode];
         if (node == null) {
-            hashTable[hashCode] = new Entry<>(key, value);
+            hashTable[hashCode] = new Entry<>(hash, key, value);
             size++;
+            modCount++;
         } else {
             Entry<K, V> prevNode = null;
+            int binCount = 0;
             while (node != null) {
                 // Use equals() for key comparison
-                if (node.key.equals(key)) {
+                if (sameKey(node, hash, key)) {
                     // Update existing key
                     node.value = value;
                     return;
                 }
                 prevNode = node;
                 node = node.next;
+                binCount++;
             }
             // key doesn't exist, append new entry
-            prevNode.next = new Entry<>(key, value);
+            prevNode.next = new Entry<>(hash, key, value);
             size++;
+            modCount++;
+            if (binCount + 1 >= TREEIFY_THRESHOLD && needsTreeify(hashCode, binCount + 1)) {
+                treeifyBin(hashCode);
+            }
         }
     }
 
@@ -109,28 +290,297 @@ public class HashMap<K, V> {
      * Retrieves the value associated with the given key
      */
     public V get(K key) {
-        int hashCode = indexFor(key, hashTable.length);
+        if (storage == Storage.OPEN_ADDRESSING) {
+            return getProbing(key);
+        }
+
+        int hash = hash(key);
+        if (oldTable != null) {
+            // not moved yet? then bring the key's old bucket over first
+            migrateBucketOf(hash);
+            migrateStep();
+        }
+
+        int hashCode = hash & (hashTable.length - 1);
+
+        TreeMap<K, Entry<K, V>> tree = treeBinFor(hashCode, key);
+        if (tree != null) {
+            Entry<K, V> entry = tree.get(key);
+            return entry != null && entry.key.equals(key) ? entry.value : null;
+        }
+
         Entry<K, V> node = hashTable[hashCode];
+        while (node != null) {
+            if (sameKey(node, hash, key)) {
+                return node.value;
+            }
+            node = node.next;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the key and returns its value, or null if it was not present.
+     * In a treeified bucket the tree lookup is O(log n), unlinking from the chain is O(chain).
+     */
+    public V remove(K key) {
+        if (storage == Storage.OPEN_ADDRESSING) {
+            return removeProbing(key);
+        }
+
+        int hash = hash(key);
+        if (oldTable != null) {
+            migrateBucketOf(hash);
+            migrateStep();
+        }
 
+        int hashCode = hash & (hashTable.length - 1);
+        Entry<K, V> prevNode = null;
+        Entry<K, V> node = hashTable[hashCode];
         while (node != null) {
-            if (node.key.equals(key)) {
+            if (sameKey(node, hash, key)) {
+                if (prevNode == null) {
+                    hashTable[hashCode] = node.next;
+                } else {
+                    prevNode.next = node.next;
+                }
+                TreeMap<K, Entry<K, V>> tree = treeBinFor(hashCode, key);
+                if (tree != null) {
+                    tree.remove(key);
+                    if (tree.isEmpty()) {
+                        treeBins[hashCode] = null;
+                    }
+                }
+                size--;
+                modCount++;
                 return node.value;
             }
+            prevNode = node;
             node = node.next;
         }
         return null;
     }
 
     /**
-     * A simple utility that ensures a non-negative, in-bounds index for the hash table.
-     * Here we do: (key.hashCode() & 0x7fffffff) % length
+     * Cheap hash comparison first, equals() only when the hashes match
      */
-    private int indexFor(K key, int length) {
+    private boolean sameKey(Entry<K, V> node, int hash, K key) {
+        K k = node.key;
+        return node.hash == hash && (k == key || (key != null && key.equals(k)));
+    }
+
+    /**
+     * Returns the tree indexing this bucket if it can answer for the key, i.e. the key
+     * has the tree's key class. Keys of other classes are only ever in the chain.
+     */
+    private TreeMap<K, Entry<K, V>> treeBinFor(int index, K key) {
+        if (treeBins == null || key == null) {
+            return null;
+        }
+        TreeMap<K, Entry<K, V>> tree = treeBins[index];
+        if (tree == null || tree.firstKey().getClass() != key.getClass()) {
+            return null;
+        }
+        return tree;
+    }
+
+    /**
+     * A long bucket needs a (new) tree if it has none, or if its tree covers less
+     * than half of the chain because keys of another class have taken over
+     */
+    private boolean needsTreeify(int index, int binCount) {
+        TreeMap<K, Entry<K, V>> tree = treeBins == null ? null : treeBins[index];
+        return tree == null || tree.size() * 2 < binCount;
+    }
+
+    /**
+     * Indexes a long bucket with a tree keyed by the keys' natural ordering, so that
+     * lookups in it stay O(log n) even when many keys share a hash.
+     * Only keys of the most common Comparable class in the bucket go into the tree.
+     */
+    @SuppressWarnings("unchecked")
+    private void treeifyBin(int index) {
+        if (hashTable.length < MIN_TREEIFY_CAPACITY) {
+            return;
+        }
+        Entry<K, V> head = hashTable[index];
+
+        // majority vote over the key classes, no counting map needed
+        Class<?> keyClass = null;
+        int votes = 0;
+        for (Entry<K, V> node = head; node != null; node = node.next) {
+            if (!(node.key instanceof Comparable)) {
+                continue;
+            }
+            if (votes == 0) {
+                keyClass = node.key.getClass();
+                votes = 1;
+            } else if (node.key.getClass() == keyClass) {
+                votes++;
+            } else {
+                votes--;
+            }
+        }
+        if (keyClass == null) {
+            return;
+        }
+        TreeMap<K, Entry<K, V>> tree = new TreeMap<>();
+        try {
+            for (Entry<K, V> node = head; node != null; node = node.next) {
+                if (node.key != null && node.key.getClass() == keyClass && tree.put(node.key, node) != null) {
+                    // two different keys compare as equal, natural ordering is unusable here
+                    return;
+                }
+            }
+        } catch (ClassCastException e) {
+            // Comparable to some other type, not to itself
+            return;
+        }
+        if (treeBins == null) {
+            treeBins = new TreeMap[hashTable.length];
+        }
+        treeBins[index] = tree;
+    }
+
+    /**
+     * Treeifies a bucket if its chain has reached TREEIFY_THRESHOLD
+     */
+    private void treeifyIfLong(int index) {
+        int binCount = 0;
+        for (Entry<K, V> node = hashTable[index]; node != null && binCount < TREEIFY_THRESHOLD; node = node.next) {
+            binCount++;
+        }
+        if (binCount >= TREEIFY_THRESHOLD) {
+            treeifyBin(index);
+        }
+    }
+
+    /**
+     * Open addressing insert: probe forward from the home slot until the key
+     * or an empty slot is found
+     */
+    private void putProbing(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not supported by open addressing storage");
+        }
+        if (size >= threshold) {
+            resizeProbing();
+        }
+
+        int mask = keys.length - 1;
+        int index = indexFor(key, keys.length);
+        Object current;
+        while ((current = keys[index]) != null) {
+            if (current.equals(key)) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        if (size >= keys.length - 1) {
+            // table is at MAXIMUM_CAPACITY and only the sentinel empty slot is left
+            throw new IllegalStateException("HashMap is full");
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Open addressing lookup: an empty slot ends the probe sequence
+     */
+    @SuppressWarnings("unchecked")
+    private V getProbing(K key) {
+        if (key == null) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int index = indexFor(key, keys.length);
+        Object current;
+        while ((current = keys[index]) != null) {
+            if (current.equals(key)) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Mixes all bits of hashCode() into the low bits (murmur3 finalizer).
+     * The index only looks at the low bits, so without this, keys whose hash codes
+     * differ only in the high bits would all land in the same bucket.
+     */
+    static int hash(Object key) {
         if (key == null) {
-            // If you want to allow null keys, you might fix an index for them, e.g. 0
+            // null keys always go to bucket 0
             return 0;
         }
-        return (key.hashCode() & 0x7fffffff) % length;
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Open addressing delete with backward shift: instead of leaving a tombstone, later
+     * entries of the same probe run are moved back so lookups still stop at the first
+     * empty slot.
+     */
+    @SuppressWarnings("unchecked")
+    private V removeProbing(K key) {
+        if (key == null) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int index = indexFor(key, keys.length);
+        Object current;
+        while ((current = keys[index]) != null) {
+            if (current.equals(key)) {
+                break;
+            }
+            index = (index + 1) & mask;
+        }
+        if (current == null) {
+            return null;
+        }
+        V oldValue = (V) values[index];
+
+        int hole = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == null) {
+                break;
+            }
+            int home = indexFor((K) keys[next], keys.length);
+            // the entry at next may move into the hole only if its home slot is not in (hole, next]
+            boolean homeBetween = hole <= next
+                    ? (home > hole && home <= next)
+                    : (home > hole || home <= next);
+            if (!homeBetween) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        modCount++;
+        return oldValue;
+    }
+
+    /**
+     * A simple utility that ensures a non-negative, in-bounds index for the hash table.
+     * Tables are always a power of two, so a mask replaces the division: hash(key) & (length - 1)
+     */
+    private int indexFor(K key, int length) {
+        return hash(key) & (length - 1);
     }
 
     /**
@@ -150,8 +600,22 @@ public class HashMap<K, V> {
             newCapacity = MAXIMUM_CAPACITY;
         }
 
+        if (resizeMode == ResizeMode.INCREMENTAL) {
+            startIncrementalResize(newCapacity);
+            return;
+        }
+        rehash(newCapacity);
+    }
+
+    /**
+     * Moves all entries into a new table of the given (larger) capacity in one go
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(int newCapacity) {
+        int oldCapacity = hashTable.length;
         Entry<K, V>[] oldTable = hashTable;
         Entry<K, V>[] newTable = new Entry[newCapacity];
+        TreeMap<K, Entry<K, V>>[] oldTreeBins = treeBins;
 
         // Rehash all entries
         for (int i = 0; i < oldTable.length; i++) {
@@ -160,8 +624,8 @@ public class HashMap<K, V> {
                 // save reference to next, so we don't lose track
                 Entry<K, V> nextNode = node.next;
 
-                // re-compute index for new table
-                int newIndex = indexFor(node.key, newCapacity);
+                // re-compute index for new table from the cached hash
+                int newIndex = node.hash & (newCapacity - 1);
                 // insert at head of newIndex's chain
                 node.next = newTable[newIndex];
                 newTable[newIndex] = node;
@@ -173,8 +637,148 @@ public class HashMap<K, V> {
 
         // update references
         hashTable = newTable;
+        modCount++;
         // recalculate threshold
-        threshold = (int) (newCapacity * loadFactor);
+        threshold = thresholdFor(newCapacity);
+
+        // bucket i only splits into i, i + oldCapacity, i + 2 * oldCapacity, ...
+        // so only those of previously treeified buckets can still be long
+        treeBins = null;
+        if (oldTreeBins != null) {
+            for (int i = 0; i < oldTreeBins.length; i++) {
+                if (oldTreeBins[i] != null) {
+                    for (int j = i; j < newCapacity; j += oldCapacity) {
+                        treeifyIfLong(j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Swaps in the bigger table but leaves the entries in the old one;
+     * they are moved a few buckets at a time by migrateStep()
+     */
+    @SuppressWarnings("unchecked")
+    private void startIncrementalResize(int newCapacity) {
+        if (oldTable != null) {
+            // the previous resize has not drained yet (only possible with tiny tables
+            // or a high load factor), finish it before starting the next one
+            finishMigration();
+        }
+        oldTable = hashTable;
+        migrateIndex = 0;
+        hashTable = new Entry[newCapacity];
+        treeBins = null;
+        modCount++;
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * Moves a bounded number of old buckets into the current table
+     */
+    private void migrateStep() {
+        int moved = 0;
+        int visited = 0;
+        while (migrateIndex < oldTable.length
+                && moved < MIGRATE_BUCKETS_PER_OP
+                && visited < MIGRATE_BUCKETS_PER_OP * 10) {
+            if (oldTable[migrateIndex] != null) {
+                migrateBucket(migrateIndex);
+                moved++;
+            }
+            migrateIndex++;
+            visited++;
+        }
+        if (migrateIndex == oldTable.length) {
+            // everything moved, drop the old table
+            oldTable = null;
+        }
+    }
+
+    /**
+     * Moves all remaining old buckets and drops the old table
+     */
+    private void finishMigration() {
+        while (migrateIndex < oldTable.length) {
+            if (oldTable[migrateIndex] != null) {
+                migrateBucket(migrateIndex);
+            }
+            migrateIndex++;
+        }
+        oldTable = null;
+    }
+
+    /**
+     * Moves the old bucket a key with this hash would be in, if it has not been moved yet
+     */
+    private void migrateBucketOf(int hash) {
+        int oldIndex = hash & (oldTable.length - 1);
+        if (oldTable[oldIndex] != null) {
+            migrateBucket(oldIndex);
+        }
+    }
+
+    /**
+     * Moves every entry of one old bucket to the head of its chain in the current table
+     */
+    private void migrateBucket(int oldIndex) {
+        Entry<K, V> node = oldTable[oldIndex];
+        oldTable[oldIndex] = null;
+        int binCount = 0;
+        while (node != null) {
+            Entry<K, V> nextNode = node.next;
+            int newIndex = node.hash & (hashTable.length - 1);
+            node.next = hashTable[newIndex];
+            hashTable[newIndex] = node;
+            node = nextNode;
+            binCount++;
+        }
+        if (binCount >= TREEIFY_THRESHOLD) {
+            treeifyIfLong(oldIndex);
+            treeifyIfLong(oldIndex + oldTable.length);
+        }
+    }
+
+    /**
+     * Doubles the key/value arrays and re-probes every occupied slot
+     */
+    private void resizeProbing() {
+        int oldCapacity = keys.length;
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            return;
+        }
+        rehashProbing(Math.min(oldCapacity << 1, MAXIMUM_CAPACITY));
+    }
+
+    /**
+     * Re-probes every occupied slot into key/value arrays of the given (larger) capacity
+     */
+    private void rehashProbing(int newCapacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        Object[] newKeys = new Object[newCapacity];
+        Object[] newValues = new Object[newCapacity];
+        int mask = newCapacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object k = oldKeys[i];
+            if (k == null) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            int index = indexFor((K) k, newCapacity);
+            while (newKeys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            newKeys[index] = k;
+            newValues[index] = oldValues[i];
+        }
+
+        keys = newKeys;
+        values = newValues;
+        threshold = thresholdFor(newCapacity);
+        modCount++;
     }
 
     /**
@@ -184,6 +788,427 @@ public class HashMap<K, V> {
         return size;
     }
 
+    /**
+     * Grows the table once so that expectedSize entries fit without any further resize.
+     * A pending incremental resize is completed first.
+     */
+    public void ensureCapacity(int expectedSize) {
+        long wanted = (long) Math.ceil(expectedSize / (double) loadFactor) + 1;
+        int newCapacity = tableSizeFor((int) Math.min(wanted, MAXIMUM_CAPACITY));
+
+        if (storage == Storage.OPEN_ADDRESSING) {
+            if (newCapacity > keys.length) {
+                rehashProbing(newCapacity);
+            }
+            return;
+        }
+        if (oldTable != null) {
+            finishMigration();
+        }
+        if (newCapacity > hashTable.length) {
+            rehash(newCapacity);
+        }
+    }
+
+    /**
+     * Calls the action for every key-value pair, in table order
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int expectedModCount = modCount;
+        if (storage == Storage.OPEN_ADDRESSING) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    action.accept((K) keys[i], (V) values[i]);
+                }
+            }
+        } else {
+            Entry<K, V>[][] tables = oldTable != null ? new Entry[][] { oldTable, hashTable } : new Entry[][] { hashTable };
+            for (Entry<K, V>[] table : tables) {
+                for (Entry<K, V> head : table) {
+                    for (Entry<K, V> node = head; node != null; node = node.next) {
+                        action.accept(node.key, node.value);
+                    }
+                }
+            }
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Fail-fast iterator over all pairs. Entries of CHAINED storage are live: setValue writes through.
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return Spliterators.iterator(this.<Map.Entry<K, V>>bucketSpliterator(ENTRIES));
+    }
+
+    /**
+     * Fail-fast iterator over all keys
+     */
+    public Iterator<K> keyIterator() {
+        return Spliterators.iterator(this.<K>bucketSpliterator(KEYS));
+    }
+
+    /**
+     * Fail-fast iterator over all values
+     */
+    public Iterator<V> valueIterator() {
+        return Spliterators.iterator(this.<V>bucketSpliterator(VALUES));
+    }
+
+    /**
+     * Spliterator over all pairs that splits by bucket range
+     */
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return bucketSpliterator(ENTRIES);
+    }
+
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Each worker gets its own range of buckets, no copying into another collection
+     */
+    public Stream<Map.Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // what a BucketSpliterator hands out
+    private static final int ENTRIES = 0;
+    private static final int KEYS = 1;
+    private static final int VALUES = 2;
+
+    private <T> Spliterator<T> bucketSpliterator(int kind) {
+        if (oldTable != null) {
+            // iterate a single table: finish the incremental resize now, it is O(n) like the iteration itself
+            finishMigration();
+        }
+        int length = storage == Storage.OPEN_ADDRESSING ? keys.length : hashTable.length;
+        return new BucketSpliterator<>(kind, 0, length, size, modCount);
+    }
+
+    /**
+     * Walks buckets [index, fence) of the table that was current when it was created.
+     * trySplit hands the lower half of the remaining buckets to a new spliterator.
+     */
+    private final class BucketSpliterator<T> implements Spliterator<T> {
+        private final int kind;
+        private final Entry<K, V>[] table = hashTable;   // CHAINED
+        private final Object[] slotKeys = keys;          // OPEN_ADDRESSING
+        private final Object[] slotValues = values;
+        private final int expectedModCount;
+        private int index;               // next bucket to start on
+        private final int fence;         // one past the last bucket
+        private Entry<K, V> current;     // CHAINED: next entry inside the current bucket
+        private long estimate;
+
+        BucketSpliterator(int kind, int origin, int fence, long estimate, int expectedModCount) {
+            this.kind = kind;
+            this.index = origin;
+            this.fence = fence;
+            this.estimate = estimate;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (lo >= mid || current != null) {
+                return null;
+            }
+            index = mid;
+            estimate >>>= 1;
+            return new BucketSpliterator<>(kind, lo, mid, estimate, expectedModCount);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (table != null) {
+                while (current != null || index < fence) {
+                    if (current == null) {
+                        current = table[index++];
+                        continue;
+                    }
+                    Entry<K, V> node = current;
+                    current = current.next;
+                    action.accept(produce(node));
+                    checkForComodification();
+                    return true;
+                }
+            } else {
+                while (index < fence) {
+                    int slot = index++;
+                    if (slotKeys[slot] != null) {
+                        action.accept(produce(slot));
+                        checkForComodification();
+                        return true;
+                    }
+                }
+            }
+            checkForComodification();
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (table != null) {
+                Entry<K, V> node = current;
+                current = null;
+                while (node != null || index < fence) {
+                    if (node == null) {
+                        node = table[index++];
+                        continue;
+                    }
+                    action.accept(produce(node));
+                    node = node.next;
+                }
+            } else {
+                for (; index < fence; index++) {
+                    if (slotKeys[index] != null) {
+                        action.accept(produce(index));
+                    }
+                }
+            }
+            checkForComodification();
+        }
+
+        @SuppressWarnings("unchecked")
+        private T produce(Entry<K, V> node) {
+            return (T) (kind == KEYS ? node.key : kind == VALUES ? node.value : node);
+        }
+
+        @SuppressWarnings("unchecked")
+        private T produce(int slot) {
+            Object k = slotKeys[slot];
+            Object v = slotValues[slot];
+            return (T) (kind == KEYS ? k : kind == VALUES ? v : new AbstractMap.SimpleImmutableEntry<>(k, v));
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return kind == VALUES ? 0 : Spliterator.DISTINCT;
+        }
+    }
+
+    /**
+     * Copies all pairs of the other map into this one, growing the table at most once
+     */
+    public void putAll(HashMap<? extends K, ? extends V> other) {
+        ensureCapacity(size + other.size());
+        other.forEach(this::put);
+    }
+
+    /**
+     * Copies all pairs of a java.util map into this one, growing the table at most once
+     */
+    public void putAll(Map<? extends K, ? extends V> other) {
+        ensureCapacity(size + other.size());
+        for (Map.Entry<? extends K, ? extends V> entry : other.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Builds a map from parallel key/value arrays in a single pass: the table is sized
+     * for all keys up front, so no resize happens while loading.
+     * Later keys win over earlier duplicates, like repeated put calls.
+     */
+    public static <K, V> HashMap<K, V> bulkLoad(K[] keys, V[] values, float loadFactor, Storage storage) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length + " values");
+        }
+        HashMap<K, V> map = new HashMap<>(INITIAL_SIZE, loadFactor, storage);
+        map.ensureCapacity(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Same result as bulkLoad, built on a fork/join pool:
+     * 1. hash all keys and count them per bucket range (parallel over input chunks)
+     * 2. scatter key positions so each bucket range gets a contiguous run, in input order
+     * 3. fill each bucket range from its run (parallel over bucket ranges, no locking,
+     *    since no two tasks ever write to the same bucket)
+     */
+    public static <K, V> HashMap<K, V> parallelBulkLoad(K[] keys, V[] values, float loadFactor,
+                                                        Storage storage, ForkJoinPool pool) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length + " values");
+        }
+        HashMap<K, V> map = new HashMap<>(INITIAL_SIZE, loadFactor, storage);
+        map.ensureCapacity(keys.length);
+        map.loadInParallel(keys, values, pool);
+        return map;
+    }
+
+    /**
+     * Parallel fill of an empty, presized map, see parallelBulkLoad
+     */
+    @SuppressWarnings("unchecked")
+    private void loadInParallel(K[] keys, V[] values, ForkJoinPool pool) {
+        int n = keys.length;
+        boolean probing = storage == Storage.OPEN_ADDRESSING;
+        int capacity = probing ? this.keys.length : hashTable.length;
+
+        // partitions are power-of-two sized bucket ranges: partition = index >>> partShift
+        int parts = Integer.highestOneBit(Math.min(pool.getParallelism() * 4, capacity));
+        int partShift = Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(parts);
+        int chunks = parts;
+
+        // 1. hash and count
+        int[] hashes = new int[n];
+        int[][] offsets = new int[chunks][parts];
+        runInParallel(pool, chunks, chunk -> {
+            int[] counts = offsets[chunk];
+            for (int i = chunkStart(chunk, chunks, n); i < chunkStart(chunk + 1, chunks, n); i++) {
+                if (probing && keys[i] == null) {
+                    throw new NullPointerException("Null keys are not supported by open addressing storage");
+                }
+                int h = hash(keys[i]);
+                hashes[i] = h;
+                counts[(h & (capacity - 1)) >>> partShift]++;
+            }
+        });
+
+        // prefix sums: partition p's run is ordered by chunk, and so by input position
+        int[] partStart = new int[parts + 1];
+        int position = 0;
+        for (int p = 0; p < parts; p++) {
+            partStart[p] = position;
+            for (int c = 0; c < chunks; c++) {
+                int count = offsets[c][p];
+                offsets[c][p] = position;
+                position += count;
+            }
+        }
+        partStart[parts] = position;
+
+        // 2. scatter
+        int[] order = new int[n];
+        runInParallel(pool, chunks, chunk -> {
+            int[] next = offsets[chunk];
+            for (int i = chunkStart(chunk, chunks, n); i < chunkStart(chunk + 1, chunks, n); i++) {
+                order[next[(hashes[i] & (capacity - 1)) >>> partShift]++] = i;
+            }
+        });
+
+        // 3. fill bucket ranges
+        int[] added = new int[parts];
+        List<Integer>[] deferred = new List[parts];      // open addressing: probe ran past the range
+        List<Integer>[] longBuckets = new List[parts];   // chained: candidates for treeification
+        runInParallel(pool, parts, part -> {
+            int lo = part << partShift;
+            int hi = (part + 1) << partShift;
+            deferred[part] = new ArrayList<>();
+            longBuckets[part] = new ArrayList<>();
+            for (int j = partStart[part]; j < partStart[part + 1]; j++) {
+                int i = order[j];
+                int index = hashes[i] & (capacity - 1);
+                if (probing) {
+                    while (index < hi && this.keys[index] != null && !this.keys[index].equals(keys[i])) {
+                        index++;
+                    }
+                    if (index == hi) {
+                        deferred[part].add(i);
+                    } else {
+                        if (this.keys[index] == null) {
+                            this.keys[index] = keys[i];
+                            added[part]++;
+                        }
+                        this.values[index] = values[i];
+                    }
+                } else if (insertChained(index, hashes[i], keys[i], values[i])) {
+                    added[part]++;
+                }
+            }
+            if (!probing) {
+                for (int b = lo; b < hi; b++) {
+                    int binCount = 0;
+                    for (Entry<K, V> node = hashTable[b]; node != null && binCount < TREEIFY_THRESHOLD; node = node.next) {
+                        binCount++;
+                    }
+                    if (binCount >= TREEIFY_THRESHOLD) {
+                        longBuckets[part].add(b);
+                    }
+                }
+            }
+        });
+
+        for (int p = 0; p < parts; p++) {
+            size += added[p];
+        }
+        modCount++;
+        // the few keys whose probe sequence crossed into the next range, in input order
+        for (int p = 0; p < parts; p++) {
+            for (int i : deferred[p]) {
+                put(keys[i], values[i]);
+            }
+            for (int b : longBuckets[p]) {
+                treeifyBin(b);
+            }
+        }
+    }
+
+    /**
+     * Appends to or updates a chain without touching size, resize or trees.
+     * Returns true if the key was new.
+     */
+    private boolean insertChained(int index, int hash, K key, V value) {
+        Entry<K, V> node = hashTable[index];
+        if (node == null) {
+            hashTable[index] = new Entry<>(hash, key, value);
+            return true;
+        }
+        while (true) {
+            if (sameKey(node, hash, key)) {
+                node.value = value;
+                return false;
+            }
+            if (node.next == null) {
+                node.next = new Entry<>(hash, key, value);
+                return true;
+            }
+            node = node.next;
+        }
+    }
+
+    private static int chunkStart(int chunk, int chunks, int n) {
+        return (int) ((long) chunk * n / chunks);
+    }
+
+    /**
+     * Runs body(0) .. body(tasks - 1) on the pool and waits for all of them
+     */
+    private static void runInParallel(ForkJoinPool pool, int tasks, IntConsumer body) {
+        List<ForkJoinTask<?>> futures = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            int task = t;
+            futures.add(pool.submit(() -> body.accept(task)));
+        }
+        for (ForkJoinTask<?> future : futures) {
+            future.join();
+        }
+    }
+
     /**
      * Simple testing
      */
@@ -206,5 +1231,40 @@ public class HashMap<K, V> {
 
         // Print size
         System.out.println("Size is " + map.size());
+
+        // Same API, open addressing layout
+        HashMap<Integer, String> probingMap = new HashMap<>(7, 0.75f, Storage.OPEN_ADDRESSING);
+        for (int i = 1; i <= 10; i++) {
+            probingMap.put(i, map.get(i));
+        }
+        probingMap.put(8, "you!");
+        System.out.println(probingMap.get(8));
+        System.out.println("Size is " + probingMap.size());
+
+        // Same API, resize cost spread over the following calls
+        HashMap<Integer, String> incrementalMap = new HashMap<>(7, 0.75f, Storage.CHAINED, ResizeMode.INCREMENTAL);
+        for (int i = 1; i <= 10; i++) {
+            incrementalMap.put(i, map.get(i));
+        }
+        System.out.println(incrementalMap.get(8));
+        System.out.println("Size is " + incrementalMap.size());
+
+        // Bulk loading: sized once, filled by all cores
+        Integer[] bulkKeys = new Integer[100_000];
+        String[] bulkValues = new String[bulkKeys.length];
+        for (int i = 0; i < bulkKeys.length; i++) {
+            bulkKeys[i] = i;
+            bulkValues[i] = "v" + i;
+        }
+        HashMap<Integer, String> bulkMap =
+                parallelBulkLoad(bulkKeys, bulkValues, 0.75f, Storage.CHAINED, ForkJoinPool.commonPool());
+        bulkMap.putAll(map);
+        System.out.println(bulkMap.get(8));
+        System.out.println("Size is " + bulkMap.size());
+
+        // Removal and parallel aggregation straight over the buckets
+        bulkMap.remove(8);
+        long sumOfKeys = bulkMap.parallelStream().mapToLong(Map.Entry::getKey).sum();
+        System.out.println("Size is " + bulkMap.size() + ", sum of keys is " + sumOfKeys);
     }
 }
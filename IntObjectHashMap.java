@@ -0,0 +1,199 @@
+package LowLevelDesign.DesignDataStructures;
+
+/**
+ * HashMap specialization for int keys.
+ * Keys live in an int[] and are never boxed; collisions are resolved with linear probing.
+ * Key 0 marks an empty slot, so the entry for key 0 itself is kept in separate fields.
+ */
+public class IntObjectHashMap<V> {
+
+    private static final int INITIAL_SIZE = 1 << 4; // 16
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final float loadFactor;
+    private int size;               // number of key-value pairs actually stored, including key 0
+    private int threshold;          // when size >= threshold, resize
+
+    private int[] keys;
+    private Object[] values;
+
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    /**
+     * Default constructor with default capacity 16 and default load factor 0.75
+     */
+    public IntObjectHashMap() {
+        this(INITIAL_SIZE, 0.75f);
+    }
+
+    /**
+     * Constructor that takes only initial capacity; load factor = 0.75
+     */
+    public IntObjectHashMap(int capacity) {
+        this(capacity, 0.75f);
+    }
+
+    /**
+     * Constructor that takes initial capacity and a load factor (must be below 1)
+     */
+    public IntObjectHashMap(int capacity, float loadFactor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        int tableSize = tableSizeFor(capacity);
+        this.loadFactor = loadFactor;
+        this.keys = new int[tableSize];
+        this.values = new Object[tableSize];
+        this.threshold = thresholdFor(tableSize);
+    }
+
+    /**
+     * Ensures capacity is a power of two and not greater than MAXIMUM_CAPACITY
+     */
+    final int tableSizeFor(int cap) {
+        int n = cap - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    private int thresholdFor(int tableSize) {
+        return Math.min((int) (tableSize * loadFactor), tableSize - 1);
+    }
+
+    /**
+     * Inserts or updates a key-value pair into the map
+     */
+    public void put(int key, V value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        if (size >= threshold) {
+            resize();
+        }
+
+        int mask = keys.length - 1;
+        int index = indexFor(key, mask);
+        int current;
+        while ((current = keys[index]) != 0) {
+            if (current == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Retrieves the value associated with the given key, or null if there is none
+     */
+    public V get(int key) {
+        return getOrDefault(key, null);
+    }
+
+    /**
+     * Retrieves the value associated with the given key, or defaultValue if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(int key, V defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int index = slotOf(key);
+        return index < 0 ? defaultValue : (V) values[index];
+    }
+
+    /**
+     * Tells apart a stored null from a missing key
+     */
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : slotOf(key) >= 0;
+    }
+
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        int index = indexFor(key, mask);
+        int current;
+        while ((current = keys[index]) != 0) {
+            if (current == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the current number of key-value pairs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Multiplicative (Fibonacci) hashing, so sequential keys spread over the whole table
+     */
+    private static int indexFor(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Doubles the key/value arrays and re-probes every occupied slot
+     */
+    private void resize() {
+        int oldCapacity = keys.length;
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            if (size >= oldCapacity - 1) {
+                throw new IllegalStateException("IntObjectHashMap is full");
+            }
+            return;
+        }
+        int newCapacity = oldCapacity << 1;
+
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] newKeys = new int[newCapacity];
+        Object[] newValues = new Object[newCapacity];
+        int mask = newCapacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k == 0) {
+                continue;
+            }
+            int index = indexFor(k, mask);
+            while (newKeys[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            newKeys[index] = k;
+            newValues[index] = oldValues[i];
+        }
+
+        keys = newKeys;
+        values = newValues;
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * Simple testing: random operations checked against java.util.HashMap (see PrimitiveMapParity)
+     */
+    public static void main(String args[]) {
+        PrimitiveMapParity.check("IntObjectHashMap", PrimitiveMapParity.of(new IntObjectHashMap<>()), false);
+    }
+}
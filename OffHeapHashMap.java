@@ -0,0 +1,516 @@
+package LowLevelDesign.DesignDataStructures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HashMap whose keys and values live outside the Java heap, in memory-mapped files.
+ *
+ * Two files are kept in the map's directory:
+ * - index: a header plus an open-addressing table of 16-byte slots (key hash, record offset)
+ * - data:  an append-only log of records [keyLength][valueLength][key bytes][value bytes]
+ *
+ * Keys and values are turned into bytes by pluggable Serializers, and keys are hashed on their
+ * serialized form so the table stays valid when the map is reopened by another JVM.
+ * Both files are mapped in fixed-size segments, so tables can be much larger than the heap
+ * (and larger than the 2GB a single MappedByteBuffer can address).
+ *
+ * Updating a key appends a new record and re-points the slot; the old record is left in the log.
+ * Data is written through to the page cache on every put; call flush() (or close()) to force it to disk.
+ */
+public class OffHeapHashMap<K, V> implements Closeable {
+
+    private static final int INITIAL_SIZE = 1 << 4; // 16
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30; // 1GB per mapping
+
+    private static final int MAGIC = 0x4F484D31; // "OHM1"
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long DATA_START = 8;    // offset 0 is reserved to mean "empty slot"
+
+    // header layout of the index file
+    private static final int H_MAGIC = 0;
+    private static final int H_CAPACITY = 4;
+    private static final int H_SIZE = 8;
+    private static final int H_SEGMENT_SIZE = 12;
+    private static final int H_LOAD_FACTOR = 16;
+    private static final int H_DATA_END = 24;
+
+    /**
+     * Converts keys/values to and from bytes
+     */
+    public interface Serializer<T> {
+        byte[] toBytes(T value);
+
+        T fromBytes(byte[] bytes);
+
+        Serializer<String> STRING = new Serializer<String>() {
+            @Override
+            public byte[] toBytes(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String fromBytes(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+
+        Serializer<Integer> INTEGER = new Serializer<Integer>() {
+            @Override
+            public byte[] toBytes(Integer value) {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+            }
+
+            @Override
+            public Integer fromBytes(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getInt();
+            }
+        };
+
+        Serializer<Long> LONG = new Serializer<Long>() {
+            @Override
+            public byte[] toBytes(Long value) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+            }
+
+            @Override
+            public Long fromBytes(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+        };
+    }
+
+    private final Path indexFile;
+    private final Path dataFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+
+    private final int segmentSize;
+    private final float loadFactor;
+    private int capacity;
+    private int size;
+    private int threshold;
+    private long dataEnd;
+
+    private MappedRegion index;
+    private MappedRegion data;
+
+    /**
+     * Opens the map stored in the given directory, or creates an empty one with
+     * default capacity 16 and default load factor 0.75
+     */
+    public OffHeapHashMap(Path directory, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(directory, INITIAL_SIZE, 0.75f, DEFAULT_SEGMENT_SIZE, keySerializer, valueSerializer);
+    }
+
+    /**
+     * Opens the map stored in the given directory, or creates an empty one with the
+     * given settings. For an existing map the stored settings win.
+     */
+    public OffHeapHashMap(Path directory, int capacity, float loadFactor, int segmentSize,
+                          Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + capacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        if (segmentSize < 4096 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two >= 4096: " + segmentSize);
+        }
+        if (keySerializer == null || valueSerializer == null) {
+            throw new IllegalArgumentException("Serializers must not be null");
+        }
+        this.indexFile = directory.resolve("index");
+        this.dataFile = directory.resolve("data");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+
+        try {
+            Files.createDirectories(directory);
+            if (Files.exists(indexFile)) {
+                // reopen: everything we need is in the header, no scan of the table
+                ByteBuffer header = readHeader(indexFile);
+                if (header.getInt(H_MAGIC) != MAGIC) {
+                    throw new IllegalStateException("Not an OffHeapHashMap index: " + indexFile);
+                }
+                this.segmentSize = header.getInt(H_SEGMENT_SIZE);
+                this.loadFactor = Float.intBitsToFloat(header.getInt(H_LOAD_FACTOR));
+                this.capacity = header.getInt(H_CAPACITY);
+                this.size = header.getInt(H_SIZE);
+                this.dataEnd = header.getLong(H_DATA_END);
+
+                this.index = new MappedRegion(indexFile, indexBytes(capacity), segmentSize);
+                this.data = new MappedRegion(dataFile, dataEnd, segmentSize);
+            } else {
+                this.segmentSize = segmentSize;
+                this.loadFactor = loadFactor;
+                this.capacity = tableSizeFor(capacity);
+                this.size = 0;
+                this.dataEnd = DATA_START;
+
+                this.index = createIndex(indexFile, this.capacity);
+                this.data = new MappedRegion(dataFile, dataEnd, segmentSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.threshold = thresholdFor(this.capacity);
+    }
+
+    /**
+     * Ensures capacity is a power of two and not greater than MAXIMUM_CAPACITY
+     */
+    final int tableSizeFor(int cap) {
+        int n = cap - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    private int thresholdFor(int tableSize) {
+        return Math.min((int) (tableSize * loadFactor), tableSize - 1);
+    }
+
+    private static long indexBytes(int capacity) {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static long slotPosition(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    /**
+     * Inserts or updates a key-value pair into the map
+     */
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        if (size >= threshold) {
+            resize();
+        }
+
+        byte[] keyBytes = keySerializer.toBytes(key);
+        byte[] valueBytes = valueSerializer.toBytes(value);
+        int hash = hashOf(keyBytes);
+
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            long pos = slotPosition(slot);
+            long recordOffset = index.getLong(pos + 8);
+            if (recordOffset == 0) {
+                index.putInt(pos, hash);
+                index.putLong(pos + 8, append(keyBytes, valueBytes));
+                size++;
+                index.putInt(H_SIZE, size);
+                return;
+            }
+            if (index.getInt(pos) == hash && keyEquals(recordOffset, keyBytes)) {
+                index.putLong(pos + 8, append(keyBytes, valueBytes));
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Retrieves the value associated with the given key
+     */
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        byte[] keyBytes = keySerializer.toBytes(key);
+        int hash = hashOf(keyBytes);
+
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            long pos = slotPosition(slot);
+            long recordOffset = index.getLong(pos + 8);
+            if (recordOffset == 0) {
+                return null;
+            }
+            if (index.getInt(pos) == hash && keyEquals(recordOffset, keyBytes)) {
+                int keyLength = data.getInt(recordOffset);
+                int valueLength = data.getInt(recordOffset + 4);
+                byte[] valueBytes = new byte[valueLength];
+                data.get(recordOffset + RECORD_HEADER_SIZE + keyLength, valueBytes);
+                return valueSerializer.fromBytes(valueBytes);
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the current number of key-value pairs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forces both files to disk
+     */
+    public void flush() {
+        index.force();
+        data.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        index.close();
+        data.close();
+    }
+
+    /**
+     * Hash of the serialized key, with the high bits mixed into the low bits
+     */
+    private static int hashOf(byte[] keyBytes) {
+        int h = Arrays.hashCode(keyBytes);
+        return h ^ (h >>> 16);
+    }
+
+    private boolean keyEquals(long recordOffset, byte[] keyBytes) {
+        if (data.getInt(recordOffset) != keyBytes.length) {
+            return false;
+        }
+        long keyStart = recordOffset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (data.getByte(keyStart + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a record to the data log and returns its offset.
+     * A record never crosses a segment boundary, so it can be read from a single mapping.
+     */
+    private long append(byte[] keyBytes, byte[] valueBytes) {
+        int recordLength = RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+        if (recordLength > segmentSize) {
+            throw new IllegalArgumentException("Entry of " + recordLength + " bytes exceeds segment size " + segmentSize);
+        }
+        long offset = dataEnd;
+        if ((offset % segmentSize) + recordLength > segmentSize) {
+            offset = (offset / segmentSize + 1) * segmentSize;
+        }
+        data.ensureCapacity(offset + recordLength);
+        data.putInt(offset, keyBytes.length);
+        data.putInt(offset + 4, valueBytes.length);
+        data.put(offset + RECORD_HEADER_SIZE, keyBytes);
+        data.put(offset + RECORD_HEADER_SIZE + keyBytes.length, valueBytes);
+
+        dataEnd = offset + recordLength;
+        index.putLong(H_DATA_END, dataEnd);
+        return offset;
+    }
+
+    private static ByteBuffer readHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+        }
+        return header;
+    }
+
+    private MappedRegion createIndex(Path file, int tableSize) throws IOException {
+        MappedRegion region = new MappedRegion(file, indexBytes(tableSize), segmentSize);
+        region.putInt(H_MAGIC, MAGIC);
+        region.putInt(H_CAPACITY, tableSize);
+        region.putInt(H_SIZE, size);
+        region.putInt(H_SEGMENT_SIZE, segmentSize);
+        region.putInt(H_LOAD_FACTOR, Float.floatToIntBits(loadFactor));
+        region.putLong(H_DATA_END, dataEnd);
+        return region;
+    }
+
+    /**
+     * Doubles the index. Slots carry the key hash, so records in the data log are not touched.
+     * The new index is built in a side file and then moved over the old one.
+     */
+    private void resize() {
+        if (capacity == MAXIMUM_CAPACITY) {
+            if (size >= capacity - 1) {
+                throw new IllegalStateException("OffHeapHashMap is full");
+            }
+            return;
+        }
+        int newCapacity = capacity << 1;
+        int mask = newCapacity - 1;
+        Path tmpFile = indexFile.resolveSibling("index.tmp");
+
+        try {
+            Files.deleteIfExists(tmpFile);
+            MappedRegion newIndex = createIndex(tmpFile, newCapacity);
+            for (int i = 0; i < capacity; i++) {
+                long pos = slotPosition(i);
+                long recordOffset = index.getLong(pos + 8);
+                if (recordOffset == 0) {
+                    continue;
+                }
+                int hash = index.getInt(pos);
+                int slot = hash & mask;
+                while (newIndex.getLong(slotPosition(slot) + 8) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newIndex.putInt(slotPosition(slot), hash);
+                newIndex.putLong(slotPosition(slot) + 8, recordOffset);
+            }
+            newIndex.force();
+            newIndex.close();
+            index.close();
+
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index = new MappedRegion(indexFile, indexBytes(newCapacity), segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        capacity = newCapacity;
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * A file mapped as a list of segments of at most segmentSize bytes, addressed with long offsets.
+     * Only the last segment may be shorter; it is remapped with doubled length as the file grows.
+     * Callers make sure a single read/write never crosses a segment boundary.
+     */
+    static final class MappedRegion implements Closeable {
+        private final FileChannel channel;
+        private final int segmentSize;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private long mappedBytes;
+
+        MappedRegion(Path file, long minimumSize, int segmentSize) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.segmentSize = segmentSize;
+            ensureCapacity(Math.max(minimumSize, channel.size()));
+        }
+
+        void ensureCapacity(long bytes) {
+            try {
+                while (mappedBytes < bytes) {
+                    int last = segments.size() - 1;
+                    if (last >= 0 && segments.get(last).capacity() < segmentSize) {
+                        long start = (long) last * segmentSize;
+                        int oldLength = segments.get(last).capacity();
+                        int newLength = (int) Math.min(segmentSize, Math.max(bytes - start, 2L * oldLength));
+                        segments.set(last, channel.map(FileChannel.MapMode.READ_WRITE, start, newLength));
+                        mappedBytes += newLength - oldLength;
+                    } else {
+                        long start = (long) segments.size() * segmentSize;
+                        int length = (int) Math.min(segmentSize, bytes - start);
+                        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, length));
+                        mappedBytes += length;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private MappedByteBuffer segment(long pos) {
+            return segments.get((int) (pos / segmentSize));
+        }
+
+        private int offset(long pos) {
+            return (int) (pos % segmentSize);
+        }
+
+        byte getByte(long pos) {
+            return segment(pos).get(offset(pos));
+        }
+
+        int getInt(long pos) {
+            return segment(pos).getInt(offset(pos));
+        }
+
+        long getLong(long pos) {
+            return segment(pos).getLong(offset(pos));
+        }
+
+        void putInt(long pos, int value) {
+            segment(pos).putInt(offset(pos), value);
+        }
+
+        void putLong(long pos, long value) {
+            segment(pos).putLong(offset(pos), value);
+        }
+
+        void get(long pos, byte[] dst) {
+            segment(pos).get(offset(pos), dst);
+        }
+
+        void put(long pos, byte[] src) {
+            segment(pos).put(offset(pos), src);
+        }
+
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // the mappings stay valid until the buffers are garbage collected
+            segments.clear();
+        }
+    }
+
+    /**
+     * Simple testing
+     */
+    public static void main(String args[]) throws IOException {
+        Path directory = Files.createTempDirectory("offheap-map");
+
+        try (OffHeapHashMap<Integer, String> map =
+                     new OffHeapHashMap<>(directory, 7, 0.75f, 1 << 16, Serializer.INTEGER, Serializer.STRING)) {
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, "value-" + i);
+            }
+            map.put(8, "you");
+            System.out.println(map.get(8));
+        }
+
+        // reopen from disk
+        try (OffHeapHashMap<Integer, String> map =
+                     new OffHeapHashMap<>(directory, Serializer.INTEGER, Serializer.STRING)) {
+            System.out.println(map.get(8) + " " + map.get(9_999));
+
+            // Print size
+            System.out.println("Size is " + map.size());
+        }
+    }
+}
@@ -1,56 +1,928 @@
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
 
 public class PackageInstaller {
-    private Map<String, List<String>> adjacencyMap; // Could be in a separate class
+    private final DependencyGraph dependencyGraph; // packages as int ids, edges as int arrays
+    private int[][] orderCache;                      // package id -> installation order (ids), null if not cached
+    private int cachedOrders;                        // non-null entries of orderCache
+
+    // bitsets over package ids, reused by every query and cleared bit by bit afterwards, so a
+    // query costs O(its closure), not O(all packages). Plain words rather than java.util.BitSet,
+    // whose clear() rescans for the highest set word and becomes O(all packages) once empty.
+    private long[] visited = new long[1];
+    private long[] onStack = new long[1];
 
     public PackageInstaller() {
-        adjacencyMap = new HashMap<>();
+        dependencyGraph = new DependencyGraph();
+        orderCache = new int[16][];
     }
 
     public void addDependency(String pkg, String dep) {
-        adjacencyMap.putIfAbsent(pkg, new ArrayList<>());
-        adjacencyMap.get(pkg).add(dep);
-        // Also ensure dep is at least in adjacencyMap so we know about it
-        adjacencyMap.putIfAbsent(dep, new ArrayList<>());
-    }
-
-    public List<String> getInstallationOrder(String packageName) throws Exception {
-        Set<String> visited = new HashSet<>();
-        Set<String> inStack = new HashSet<>();
-        List<String> result = new ArrayList<>();
-        
-        dfs(packageName, visited, inStack, result);
-
-        // 'result' is in reverse order if we add at the end of DFS
-        // reverse it or build it in a consistent topological order
-        Collections.reverse(result);
+        int pkgId = dependencyGraph.intern(pkg);
+        // Also ensure dep is in the graph so we know about it
+        int depId = dependencyGraph.intern(dep);
+        if (!dependencyGraph.addEdge(pkgId, depId)) {
+            // nothing changes, keep the cache
+            return;
+        }
+        invalidate(pkgId);
+    }
+
+    /**
+     * Drops the cached orders of pkg and of every package that (transitively) depends on it.
+     * Nothing else can contain pkg in its order, so the rest of the cache stays valid.
+     */
+    private void invalidate(int pkg) {
+        if (cachedOrders == 0) {
+            // nothing to drop; keeps bulk loading linear instead of walking all ancestors per edge
+            return;
+        }
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        // 'visited' is clear between queries; borrow it and clear what we set
+        ensureBits();
+        long[] seen = visited;
+        queue[tail++] = pkg;
+        set(seen, pkg);
+        while (head < tail) {
+            int current = queue[head++];
+            if (current < orderCache.length && orderCache[current] != null) {
+                orderCache[current] = null;
+                cachedOrders--;
+            }
+            for (int i = 0, n = dependencyGraph.dependentCount(current); i < n; i++) {
+                int dependent = dependencyGraph.dependent(current, i);
+                if (!get(seen, dependent)) {
+                    set(seen, dependent);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = dependent;
+                }
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            clear(seen, queue[i]);
+        }
+    }
+
+    /**
+     * Direct dependencies of pkg
+     */
+    public List<String> getDependencies(String pkg) {
+        int id = dependencyGraph.id(pkg);
+        if (id < 0) {
+            return Collections.emptyList();
+        }
+        return new NameList(dependencyGraph.dependencies(id));
+    }
+
+    /**
+     * Installs packageName and its dependencies on up to 'workers' threads, each package as soon
+     * as all of its own dependencies are installed (see InstallScheduler)
+     */
+    public InstallReport install(String packageName, Consumer<String> installer, int workers) throws Exception {
+        return new InstallScheduler(this, installer, workers).run(packageName);
+    }
+
+    /**
+     * Returns the packages to install for packageName, dependencies before the packages
+     * that need them. Answered from the cache until a dependency below packageName changes.
+     * The returned list is read-only.
+     */
+    public List<String> getInstallationOrder(String packageName) throws CycleException {
+        int id = dependencyGraph.id(packageName);
+        if (id < 0) {
+            // no known dependencies
+            return Collections.singletonList(packageName);
+        }
+        return new NameList(installationOrder(id));
+    }
+
+    private int[] installationOrder(int root) throws CycleException {
+        int[] cached = cachedOrder(root);
+        if (cached != null) {
+            return cached;
+        }
+
+        // iterative DFS: stack[d] is a package on the current path, next[d] the index of its
+        // next dependency to visit, so deep chains cannot overflow the thread's stack
+        int[] stack = new int[16];
+        int[] next = new int[16];
+        int depth = 0;
+        int[] result = new int[16];
+        int size = 0;
+
+        ensureBits();
+        stack[depth] = root;
+        next[depth++] = 0;
+        set(onStack, root);
+        try {
+            while (depth > 0) {
+                int pkg = stack[depth - 1];
+                int i = next[depth - 1];
+                if (i == dependencyGraph.dependencyCount(pkg)) {
+                    // all dependencies of pkg are in result, pkg can follow them
+                    depth--;
+                    clear(onStack, pkg);
+                    set(visited, pkg);
+                    if (size == result.length) {
+                        result = Arrays.copyOf(result, size * 2);
+                    }
+                    result[size++] = pkg;
+                    continue;
+                }
+                next[depth - 1]++;
+
+                int dep = dependencyGraph.dependency(pkg, i);
+                if (get(onStack, dep)) {
+                    // report every cycle below root at once, not just the one we ran into
+                    throw new CycleException(dependencyGraph.name(root), cycles(new int[]{root}));
+                }
+                if (get(visited, dep)) {
+                    // Already fully processed
+                    continue;
+                }
+                int[] depOrder = cachedOrder(dep);
+                if (depOrder != null) {
+                    // dep's whole closure is already ordered (and acyclic); take the packages not seen yet.
+                    // Each of them only depends on packages earlier in that order or already in result.
+                    if (size + depOrder.length > result.length) {
+                        result = Arrays.copyOf(result, Math.max(result.length * 2, size + depOrder.length));
+                    }
+                    for (int p : depOrder) {
+                        if (!get(visited, p)) {
+                            set(visited, p);
+                            result[size++] = p;
+                        }
+                    }
+                    continue;
+                }
+
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                stack[depth] = dep;
+                next[depth++] = 0;
+                set(onStack, dep);
+            }
+        } finally {
+            for (int d = 0; d < depth; d++) {
+                clear(onStack, stack[d]);
+            }
+            for (int r = 0; r < size; r++) {
+                clear(visited, result[r]);
+            }
+        }
+
+        // 'result' is in post order: every package comes after all of its dependencies,
+        // which is exactly the installation order
+        int[] order = Arrays.copyOf(result, size);
+        if (root >= orderCache.length) {
+            orderCache = Arrays.copyOf(orderCache, Math.max(orderCache.length * 2, dependencyGraph.size()));
+        }
+        orderCache[root] = order;
+        cachedOrders++;
+        return order;
+    }
+
+    /**
+     * Every cycle in the whole graph, found in one O(V + E) pass; empty if the graph is a DAG
+     */
+    public List<DependencyCycle> findCycles() {
+        int[] all = new int[dependencyGraph.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return cycles(all);
+    }
+
+    /**
+     * Installation order over the condensed graph: packages that depend on each other in a
+     * cycle form one group and must be installed together; every group comes after the
+     * groups it depends on. Works even when getInstallationOrder throws a CycleException.
+     */
+    public List<List<String>> getCondensedInstallationOrder(String packageName) {
+        int id = dependencyGraph.id(packageName);
+        if (id < 0) {
+            return Collections.singletonList(Collections.singletonList(packageName));
+        }
+        // Tarjan emits a component only after every component it depends on
+        Tarjan tarjan = new Tarjan();
+        tarjan.run(id);
+        List<List<String>> groups = new ArrayList<>();
+        for (int[] component : tarjan.components) {
+            groups.add(new NameList(component));
+        }
+        return groups;
+    }
+
+    private List<DependencyCycle> cycles(int[] roots) {
+        Tarjan tarjan = new Tarjan();
+        for (int root : roots) {
+            tarjan.run(root);
+        }
+
+        // back edges grouped by the component they close a cycle in
+        Map<Integer, List<long[]>> backEdges = new HashMap<>();
+        for (int i = 0; i < tarjan.backEdgeCount; i++) {
+            int from = tarjan.backEdges[2 * i];
+            int to = tarjan.backEdges[2 * i + 1];
+            backEdges.computeIfAbsent(tarjan.component[from], k -> new ArrayList<>()).add(new long[]{from, to});
+        }
+
+        List<DependencyCycle> cycles = new ArrayList<>();
+        for (int c = 0; c < tarjan.components.size(); c++) {
+            List<long[]> edges = backEdges.get(c);
+            if (edges == null) {
+                // a single package without a self dependency
+                continue;
+            }
+            List<DependencyCycle.Edge> minimal = new ArrayList<>();
+            for (long[] edge : minimalBackEdges(tarjan.component, c, edges)) {
+                minimal.add(new DependencyCycle.Edge(dependencyGraph.name((int) edge[0]), dependencyGraph.name((int) edge[1])));
+            }
+            cycles.add(new DependencyCycle(new NameList(tarjan.components.get(c)), minimal));
+        }
+        return cycles;
+    }
+
+    /**
+     * Dropping all DFS back edges of a component leaves it acyclic. Greedily put each one back
+     * if that does not close a cycle again, i.e. if its target cannot reach its source without
+     * the edges still dropped. What is left is inclusion-minimal, not necessarily minimum
+     * (finding a minimum feedback arc set is NP-hard).
+     */
+    private List<long[]> minimalBackEdges(int[] component, int c, List<long[]> edges) {
+        Set<Long> dropped = new HashSet<>();
+        for (long[] edge : edges) {
+            dropped.add(edge[0] << 32 | edge[1]);
+        }
+        List<long[]> kept = new ArrayList<>();
+        for (long[] edge : edges) {
+            dropped.remove(edge[0] << 32 | edge[1]);
+            if (reaches((int) edge[1], (int) edge[0], component, c, dropped)) {
+                dropped.add(edge[0] << 32 | edge[1]);
+                kept.add(edge);
+            }
+        }
+        return kept;
+    }
+
+    // BFS from 'from' inside component c, ignoring dropped edges
+    private boolean reaches(int from, int to, int[] component, int c, Set<Long> dropped) {
+        if (from == to) {
+            return true;
+        }
+        ensureBits();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = from;
+        set(visited, from);
+        boolean found = false;
+        while (head < tail && !found) {
+            int current = queue[head++];
+            for (int i = 0, n = dependencyGraph.dependencyCount(current); i < n; i++) {
+                int dep = dependencyGraph.dependency(current, i);
+                if (component[dep] != c || get(visited, dep) || dropped.contains((long) current << 32 | dep)) {
+                    continue;
+                }
+                if (dep == to) {
+                    found = true;
+                    break;
+                }
+                set(visited, dep);
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = dep;
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            clear(visited, queue[i]);
+        }
+        return found;
+    }
+
+    /**
+     * Iterative Tarjan strongly connected components.
+     *
+     * - index[v] is v's DFS number (0 = not visited yet), lowLink[v] the smallest index reachable
+     *   from v's subtree through packages still on the component stack
+     * - v closes a component when lowLink[v] == index[v]; components come out dependencies first
+     * - edges to a package on the current DFS path are the back edges; dropping them all breaks every cycle
+     */
+    private final class Tarjan {
+        final int[] index = new int[dependencyGraph.size()];
+        final int[] lowLink = new int[dependencyGraph.size()];
+        final int[] component = new int[dependencyGraph.size()];
+        final long[] onComponentStack = new long[(dependencyGraph.size() >>> 6) + 1];
+        final long[] onPath = new long[(dependencyGraph.size() >>> 6) + 1];
+        final List<int[]> components = new ArrayList<>();
+        int counter;
+
+        int[] componentStack = new int[16];
+        int componentTop;
+        int[] path = new int[16];
+        int[] next = new int[16];
+        int depth;
+
+        int[] backEdges = new int[16]; // from, to pairs
+        int backEdgeCount;
+
+        void run(int root) {
+            if (index[root] != 0) {
+                return;
+            }
+            push(root);
+            while (depth > 0) {
+                int v = path[depth - 1];
+                int i = next[depth - 1];
+                if (i < dependencyGraph.dependencyCount(v)) {
+                    next[depth - 1]++;
+                    int w = dependencyGraph.dependency(v, i);
+                    if (index[w] == 0) {
+                        push(w);
+                    } else if (get(onComponentStack, w)) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                        if (get(onPath, w)) {
+                            addBackEdge(v, w);
+                        }
+                    }
+                    continue;
+                }
+
+                depth--;
+                clear(onPath, v);
+                if (lowLink[v] == index[v]) {
+                    int start = componentTop;
+                    do {
+                        start--;
+                        clear(onComponentStack, componentStack[start]);
+                        component[componentStack[start]] = components.size();
+                    } while (componentStack[start] != v);
+                    components.add(Arrays.copyOfRange(componentStack, start, componentTop));
+                    componentTop = start;
+                }
+                if (depth > 0) {
+                    int parent = path[depth - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+            }
+        }
+
+        private void push(int v) {
+            index[v] = lowLink[v] = ++counter;
+            if (componentTop == componentStack.length) {
+                componentStack = Arrays.copyOf(componentStack, componentTop * 2);
+            }
+            componentStack[componentTop++] = v;
+            set(onComponentStack, v);
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            path[depth] = v;
+            next[depth++] = 0;
+            set(onPath, v);
+        }
+
+        private void addBackEdge(int from, int to) {
+            if (2 * backEdgeCount + 2 > backEdges.length) {
+                backEdges = Arrays.copyOf(backEdges, backEdges.length * 2);
+            }
+            backEdges[2 * backEdgeCount] = from;
+            backEdges[2 * backEdgeCount + 1] = to;
+            backEdgeCount++;
+        }
+    }
+
+    private int[] cachedOrder(int pkg) {
+        return pkg < orderCache.length ? orderCache[pkg] : null;
+    }
+
+    private void ensureBits() {
+        int words = (dependencyGraph.size() >>> 6) + 1;
+        if (visited.length < words) {
+            visited = Arrays.copyOf(visited, Math.max(words, visited.length * 2));
+            onStack = Arrays.copyOf(onStack, visited.length);
+        }
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void clear(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Read-only view of package ids as names, so cached orders are stored once as int arrays
+     */
+    private final class NameList extends AbstractList<String> {
+        private final int[] ids;
+
+        NameList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            return dependencyGraph.name(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
+
+/**
+ * Dependency edges between interned package ids.
+ *
+ * - every package name is mapped once to a dense int id; after that nothing hashes strings
+ * - edges live in CSR form: the dependencies of p are targets[offsets[p] .. offsets[p + 1])
+ * - edges added since the last compaction go to a small growable array per package and are
+ *   merged into the CSR arrays once they are as many as the compacted ones, so adding stays
+ *   amortized O(1) while most edges are read from two flat arrays
+ * - duplicate edges are caught by a primitive hash set of (pkg, dep) pairs, not by scanning
+ *   the package's dependencies, so a package with d dependencies loads in O(d), not O(d^2)
+ * - reverse edges (dependents) are only walked to invalidate cached orders and stay per package
+ */
+class DependencyGraph {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    // compacted edges, covering packages [0, offsets.length - 1)
+    private int[] offsets = {0};
+    private int[] targets = new int[0];
+
+    // edges added since the last compaction
+    private int[][] added = new int[16][];
+    private int[] addedCount = new int[16];
+    private int addedEdges;
+
+    private int[][] dependents = new int[16][];
+    private int[] dependentCount = new int[16];
+
+    // every edge as (pkg + 1) << 32 | dep, open addressing with linear probing; 0 = empty slot
+    private long[] edgeKeys = new long[64];
+    private int edgeCount;
+
+    /**
+     * Returns the id of name, assigning the next free one if name is new
+     */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int newId = names.size();
+        ids.put(name, newId);
+        names.add(name);
+        if (newId == addedCount.length) {
+            int capacity = newId * 2;
+            added = Arrays.copyOf(added, capacity);
+            addedCount = Arrays.copyOf(addedCount, capacity);
+            dependents = Arrays.copyOf(dependents, capacity);
+            dependentCount = Arrays.copyOf(dependentCount, capacity);
+        }
+        return newId;
+    }
+
+    /**
+     * Id of name, or -1 if it was never added
+     */
+    int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names.get(id);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * Adds pkg -> dep unless it is already there; returns whether it was added
+     */
+    boolean addEdge(int pkg, int dep) {
+        if (!addEdgeKey(((long) (pkg + 1) << 32) | dep)) {
+            return false;
+        }
+        addedCount[pkg] = append(added, addedCount[pkg], pkg, dep);
+        dependentCount[dep] = append(dependents, dependentCount[dep], dep, pkg);
+        if (++addedEdges >= Math.max(64, targets.length)) {
+            compact();
+        }
+        return true;
+    }
+
+    private boolean addEdgeKey(long key) {
+        int mask = edgeKeys.length - 1;
+        int i = indexFor(key, mask);
+        while (edgeKeys[i] != 0) {
+            if (edgeKeys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        edgeKeys[i] = key;
+        if (++edgeCount > edgeKeys.length / 2) {
+            long[] old = edgeKeys;
+            edgeKeys = new long[old.length * 2];
+            mask = edgeKeys.length - 1;
+            for (long k : old) {
+                if (k != 0) {
+                    int j = indexFor(k, mask);
+                    while (edgeKeys[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    edgeKeys[j] = k;
+                }
+            }
+        }
+        return true;
+    }
+
+    // multiplicative (Fibonacci) hashing, as in LongObjectHashMap
+    private static int indexFor(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int append(int[][] lists, int count, int owner, int value) {
+        int[] list = lists[owner];
+        if (list == null) {
+            list = lists[owner] = new int[4];
+        } else if (count == list.length) {
+            list = lists[owner] = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = value;
+        return count + 1;
+    }
+
+    int dependencyCount(int pkg) {
+        return compactedCount(pkg) + addedCount[pkg];
+    }
+
+    /**
+     * The i-th dependency of pkg, 0 <= i < dependencyCount(pkg)
+     */
+    int dependency(int pkg, int i) {
+        int compacted = compactedCount(pkg);
+        return i < compacted ? targets[offsets[pkg] + i] : added[pkg][i - compacted];
+    }
+
+    int[] dependencies(int pkg) {
+        int n = dependencyCount(pkg);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = dependency(pkg, i);
+        }
         return result;
     }
 
-    private void dfs(String pkg, Set<String> visited, Set<String> inStack, List<String> result) throws Exception {
-        if (inStack.contains(pkg)) {
-            throw new Exception("Cycle detected - no valid install order for " + pkg);
+    int dependentCount(int pkg) {
+        return dependentCount[pkg];
+    }
+
+    int dependent(int pkg, int i) {
+        return dependents[pkg][i];
+    }
+
+    private int compactedCount(int pkg) {
+        return pkg < offsets.length - 1 ? offsets[pkg + 1] - offsets[pkg] : 0;
+    }
+
+    /**
+     * Merges the added edges into the CSR arrays, keeping each package's dependencies in insertion order
+     */
+    private void compact() {
+        int n = names.size();
+        int[] newOffsets = new int[n + 1];
+        int[] newTargets = new int[targets.length + addedEdges];
+        int pos = 0;
+        for (int pkg = 0; pkg < n; pkg++) {
+            newOffsets[pkg] = pos;
+            int compacted = compactedCount(pkg);
+            System.arraycopy(targets, offsets[Math.min(pkg, offsets.length - 1)], newTargets, pos, compacted);
+            pos += compacted;
+            if (addedCount[pkg] > 0) {
+                System.arraycopy(added[pkg], 0, newTargets, pos, addedCount[pkg]);
+                pos += addedCount[pkg];
+                added[pkg] = null;
+                addedCount[pkg] = 0;
+            }
         }
-        if (visited.contains(pkg)) {
-            // Already fully processed
-            return;
+        newOffsets[n] = pos;
+        offsets = newOffsets;
+        targets = newTargets;
+        addedEdges = 0;
+    }
+}
+
+/**
+ * Kahn-style parallel install: every package counts its not yet installed dependencies, the
+ * ones at zero run on a fixed pool, and each finished install decrements its dependents,
+ * submitting those that reach zero. Independent packages (D, E and G in the demo) install
+ * at the same time, and nothing waits for a whole "level" to finish.
+ *
+ * If an install throws, everything that depends on it is skipped; unrelated installs go on.
+ */
+class InstallScheduler {
+    private static final int PENDING = 0;
+    private static final int INSTALLED = 1;
+    private static final int FAILED = 2;
+    private static final int SKIPPED = 3;
+
+    private final PackageInstaller graph;
+    private final Consumer<String> installer;
+    private final int workers;
+
+    InstallScheduler(PackageInstaller graph, Consumer<String> installer, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Illegal worker count: " + workers);
+        }
+        this.graph = graph;
+        this.installer = installer;
+        this.workers = workers;
+    }
+
+    InstallReport run(String root) throws Exception {
+        // also rejects cycles; dependencies come before dependents
+        List<String> order = graph.getInstallationOrder(root);
+        int n = order.size();
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            index.put(order.get(i), i);
+        }
+        int[][] deps = new int[n][];
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        AtomicIntegerArray remaining = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            List<String> direct = graph.getDependencies(order.get(i));
+            deps[i] = new int[direct.size()];
+            for (int d = 0; d < direct.size(); d++) {
+                int dep = index.get(direct.get(d));
+                deps[i][d] = dep;
+                dependents.get(dep).add(i);
+            }
+            remaining.set(i, direct.size());
+        }
+
+        // collect the leaves before submitting any: once installs run, counters reach zero
+        // concurrently and such packages are submitted by the install that freed them
+        List<Integer> leaves = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (remaining.get(i) == 0) {
+                leaves.add(i);
+            }
+        }
+        Run run = new Run(order, dependents, remaining);
+        long start = System.nanoTime();
+        boolean finished = false;
+        try {
+            for (int leaf : leaves) {
+                run.submit(leaf);
+            }
+            run.done.await();
+            finished = true;
+        } finally {
+            // interrupted: stop the installs still running, the pool threads are not daemons
+            if (finished) {
+                run.pool.shutdown();
+            } else {
+                run.pool.shutdownNow();
+            }
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        return run.report(deps, wallNanos);
+    }
+
+    /**
+     * State of one install run
+     */
+    private final class Run {
+        final List<String> order;
+        final List<List<Integer>> dependents;
+        final AtomicIntegerArray remaining;
+        final AtomicIntegerArray state;
+        final long[] durations;
+        final CountDownLatch done;
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        Run(List<String> order, List<List<Integer>> dependents, AtomicIntegerArray remaining) {
+            this.order = order;
+            this.dependents = dependents;
+            this.remaining = remaining;
+            this.state = new AtomicIntegerArray(order.size());
+            this.durations = new long[order.size()];
+            this.done = new CountDownLatch(order.size());
+        }
+
+        void submit(int pkg) {
+            pool.execute(() -> install(pkg));
         }
 
-        // Mark start of recursion for pkg
-        inStack.add(pkg);
+        void install(int pkg) {
+            if (state.get(pkg) != PENDING) {
+                // skipped because a dependency failed
+                return;
+            }
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                installer.accept(order.get(pkg));
+                ok = true;
+            } catch (Throwable e) {
+                // anything else would kill the worker before done counts this package down
+                ok = false;
+            }
+            durations[pkg] = System.nanoTime() - start;
+            running.decrementAndGet();
+
+            state.set(pkg, ok ? INSTALLED : FAILED);
+            for (int dependent : dependents.get(pkg)) {
+                if (!ok) {
+                    skip(dependent);
+                } else if (remaining.decrementAndGet(dependent) == 0 && state.get(dependent) == PENDING) {
+                    submit(dependent);
+                }
+            }
+            done.countDown();
+        }
 
-        // Get dependencies
-        List<String> deps = adjacencyMap.getOrDefault(pkg, new ArrayList<>());
-        for (String dep : deps) {
-            dfs(dep, visited, inStack, result);
+        // marks pkg and everything above it as skipped, each exactly once
+        void skip(int pkg) {
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(pkg);
+            while (!stack.isEmpty()) {
+                int current = stack.pop();
+                if (state.compareAndSet(current, PENDING, SKIPPED)) {
+                    done.countDown();
+                    for (int dependent : dependents.get(current)) {
+                        stack.push(dependent);
+                    }
+                }
+            }
         }
 
-        // Mark end of recursion for pkg
-        inStack.remove(pkg);
-        visited.add(pkg);
-        
-        // Add this pkg to the ordering
-        result.add(pkg);
+        InstallReport report(int[][] deps, long wallNanos) {
+            // longest chain ending at each package, in packages and in measured time;
+            // 'order' lists dependencies first, so one pass is enough
+            int n = order.size();
+            int[] chainLength = new int[n];
+            long[] chainNanos = new long[n];
+            int criticalPathLength = 0;
+            long criticalPathNanos = 0;
+            long busyNanos = 0;
+            List<String> installed = new ArrayList<>();
+            List<String> failed = new ArrayList<>();
+            List<String> skipped = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                for (int dep : deps[i]) {
+                    chainLength[i] = Math.max(chainLength[i], chainLength[dep]);
+                    chainNanos[i] = Math.max(chainNanos[i], chainNanos[dep]);
+                }
+                chainLength[i]++;
+                chainNanos[i] += durations[i];
+                criticalPathLength = Math.max(criticalPathLength, chainLength[i]);
+                criticalPathNanos = Math.max(criticalPathNanos, chainNanos[i]);
+                busyNanos += durations[i];
+
+                int s = state.get(i);
+                (s == INSTALLED ? installed : s == FAILED ? failed : skipped).add(order.get(i));
+            }
+            return new InstallReport(installed, failed, skipped, criticalPathLength, criticalPathNanos,
+                    busyNanos, wallNanos, maxRunning.get());
+        }
+    }
+}
+
+/**
+ * Packages that depend on each other in a loop: one strongly connected component of the
+ * dependency graph with more than one package, or a package depending on itself
+ *
+ * - packages: the members
+ * - backEdges: dependencies that, once dropped, leave the members acyclic; putting any one
+ *   of them back creates a cycle again
+ */
+class DependencyCycle {
+    final List<String> packages;
+    final List<Edge> backEdges;
+
+    DependencyCycle(List<String> packages, List<Edge> backEdges) {
+        this.packages = packages;
+        this.backEdges = backEdges;
+    }
+
+    static final class Edge {
+        final String from;
+        final String to;
+
+        Edge(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return packages + " (break " + backEdges + ")";
+    }
+}
+
+/**
+ * Thrown when an installation order is asked for a package whose dependencies contain
+ * cycles; carries all of them, not just the first one found
+ */
+class CycleException extends Exception {
+    private final List<DependencyCycle> cycles;
+
+    CycleException(String pkg, List<DependencyCycle> cycles) {
+        super("Cycle detected - no valid install order for " + pkg + ": " + cycles);
+        this.cycles = cycles;
+    }
+
+    public List<DependencyCycle> getCycles() {
+        return cycles;
+    }
+}
+
+/**
+ * Outcome of InstallScheduler.run
+ *
+ * - criticalPathLength: packages on the longest dependency chain, a lower bound on the
+ *   number of install "rounds" whatever the worker count
+ * - achievedParallelism: total install time / wall time, i.e. how many workers were busy on average
+ */
+class InstallReport {
+    final List<String> installed;
+    final List<String> failed;
+    final List<String> skipped;
+    final int criticalPathLength;
+    final long criticalPathNanos;
+    final long busyNanos;
+    final long wallNanos;
+    final int maxConcurrent;
+
+    InstallReport(List<String> installed, List<String> failed, List<String> skipped, int criticalPathLength,
+                  long criticalPathNanos, long busyNanos, long wallNanos, int maxConcurrent) {
+        this.installed = installed;
+        this.failed = failed;
+        this.skipped = skipped;
+        this.criticalPathLength = criticalPathLength;
+        this.criticalPathNanos = criticalPathNanos;
+        this.busyNanos = busyNanos;
+        this.wallNanos = wallNanos;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    boolean succeeded() {
+        return failed.isEmpty() && skipped.isEmpty();
+    }
+
+    double achievedParallelism() {
+        return wallNanos == 0 ? 0 : (double) busyNanos / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "installed=" + installed.size() + ", failed=" + failed + ", skipped=" + skipped
+                + ", criticalPath=" + criticalPathLength + " packages / " + criticalPathNanos / 1_000_000 + " ms"
+                + ", wall=" + wallNanos / 1_000_000 + " ms"
+                + String.format(", parallelism=%.2f", achievedParallelism())
+                + ", maxConcurrent=" + maxConcurrent;
     }
 }
 
@@ -87,6 +959,32 @@ class Main {
             System.out.println("Install order for A: " + orderForA);
 
             // e.g., possible valid sequence: [G, F, C, E, D, B, A]
+
+            // C -> K only drops the cached orders of C and its dependents (A); B's stays
+            System.out.println("Install order for B: " + installer.getInstallationOrder("B"));
+            installer.addDependency("C", "K");
+            System.out.println("Install order for A after C -> K: " + installer.getInstallationOrder("A"));
+            System.out.println("Install order for B (cached): " + installer.getInstallationOrder("B"));
+
+            // every install takes 50 ms; D, E, G and K can all run at once
+            InstallReport report = installer.install("A", pkg -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 4);
+            System.out.println("Parallel install of A: " + report);
+
+            // two cycles below A: B -> E -> B and C -> F -> G -> C
+            installer.addDependency("E", "B");
+            installer.addDependency("G", "C");
+            try {
+                installer.getInstallationOrder("A");
+            } catch (CycleException e) {
+                System.out.println(e.getMessage());
+            }
+            System.out.println("Condensed install order for A: " + installer.getCondensedInstallationOrder("A"));
         } catch (Exception e) {
             System.err.println(e.getMessage());
         }
@@ -101,7 +999,7 @@ Building the adjacency list is O(E) where E is the number of edges (dependencies
 The DFS approach visits each node and edge exactly once, yielding O(V + E) overall, where V is the number of packages (nodes) and E is the number of dependencies (edges).
 Space Complexity:
 We store the adjacency map, which is O(V + E).
-The recursion stack and visited sets are O(V).
+The explicit DFS stack and the visited / on-stack bitsets are O(V); no recursion, so chain depth is not limited by the thread stack.
 Hence, total space is also O(V + E).
 
 . Incremental or Repeated Calls
@@ -135,7 +1033,8 @@ This can get more complex if multiple versions can’t coexist or have partial o
 ┌────────────────────────────────────────┐
 │         DependencyGraph (optional)    │
 │────────────────────────────────────────│
-│ - adjacencyMap: Map<String, List<String>> 
+│ - ids: Map<String, Integer>, names    │
+│ - offsets / targets: int[] (CSR)      │
 │────────────────────────────────────────│
 │ + addDependency(pkg: String, dep: String): void
 │ + getDependencies(pkg: String): List<String>
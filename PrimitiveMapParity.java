@@ -0,0 +1,154 @@
+package LowLevelDesign.DesignDataStructures;
+
+import java.util.Random;
+
+/**
+ * Parity check shared by the primitive HashMap specializations (IntObjectHashMap,
+ * LongObjectHashMap, IntIntHashMap): the same random operations run against the map under test
+ * and java.util.HashMap, and both must agree.
+ * - put / get / size, containsKey / getOrDefault on present and missing keys, key 0 included
+ * - every map starts at the default capacity and grows well past it
+ */
+final class PrimitiveMapParity {
+
+    /**
+     * The map under test, with keys widened to long and values to int
+     */
+    interface Subject {
+        void put(long key, int value);
+
+        int get(long key);              // only called for keys that are present
+
+        boolean containsKey(long key);
+
+        int getOrDefault(long key, int defaultValue);
+
+        int size();
+    }
+
+    private PrimitiveMapParity() {
+    }
+
+    /**
+     * Runs the check; keys stay within int unless longKeys is set
+     */
+    static void check(String name, Subject map, boolean longKeys) {
+        java.util.HashMap<Long, Integer> reference = new java.util.HashMap<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(20_000) - 10_000 + (longKeys && random.nextBoolean() ? 1L << 40 : 0);
+            if (random.nextBoolean()) {
+                map.put(key, i);
+                reference.put(key, i);
+            } else {
+                verify(name, map, reference, key);
+            }
+        }
+
+        // every key ever stored, plus some that never were
+        for (long key : reference.keySet()) {
+            verify(name, map, reference, key);
+        }
+        for (long key = 10_000; key < 10_100; key++) {
+            verify(name, map, reference, key);
+        }
+        if (map.size() != reference.size()) {
+            throw new IllegalStateException(name + " size mismatch: " + map.size() + " vs " + reference.size());
+        }
+        if (map.size() <= 16) {
+            throw new IllegalStateException(name + " never grew past the default capacity");
+        }
+        System.out.println(name + ": " + map.size() + " keys agree");
+    }
+
+    private static void verify(String name, Subject map, java.util.HashMap<Long, Integer> reference, long key) {
+        Integer expected = reference.get(key);
+        if (map.containsKey(key) != (expected != null)
+                || (expected != null && map.get(key) != expected)
+                || map.getOrDefault(key, -1) != reference.getOrDefault(key, -1)) {
+            throw new IllegalStateException(name + " mismatch for key " + key);
+        }
+    }
+
+    static Subject of(IntObjectHashMap<Integer> map) {
+        return new Subject() {
+            public void put(long key, int value) {
+                map.put((int) key, value);
+            }
+
+            public int get(long key) {
+                return map.get((int) key);
+            }
+
+            public boolean containsKey(long key) {
+                return map.containsKey((int) key);
+            }
+
+            public int getOrDefault(long key, int defaultValue) {
+                return map.getOrDefault((int) key, defaultValue);
+            }
+
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    static Subject of(LongObjectHashMap<Integer> map) {
+        return new Subject() {
+            public void put(long key, int value) {
+                map.put(key, value);
+            }
+
+            public int get(long key) {
+                return map.get(key);
+            }
+
+            public boolean containsKey(long key) {
+                return map.containsKey(key);
+            }
+
+            public int getOrDefault(long key, int defaultValue) {
+                return map.getOrDefault(key, defaultValue);
+            }
+
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    static Subject of(IntIntHashMap map) {
+        return new Subject() {
+            public void put(long key, int value) {
+                map.put((int) key, value);
+            }
+
+            public int get(long key) {
+                return map.get((int) key);
+            }
+
+            public boolean containsKey(long key) {
+                return map.containsKey((int) key);
+            }
+
+            public int getOrDefault(long key, int defaultValue) {
+                return map.getOrDefault((int) key, defaultValue);
+            }
+
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    /**
+     * Simple testing: the same check for all three specializations
+     */
+    public static void main(String args[]) {
+        check("IntObjectHashMap", of(new IntObjectHashMap<>()), false);
+        check("LongObjectHashMap", of(new LongObjectHashMap<>()), true);
+        check("IntIntHashMap", of(new IntIntHashMap()), false);
+    }
+}
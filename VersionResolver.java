@@ -0,0 +1,1156 @@
+import java.util.*;
+
+/**
+ * Versioned dependencies on top of PackageInstaller: picks one version per package so that
+ * every dependency constraint holds, then orders the result with PackageInstaller, where
+ * "B=1.0" and "B=2.0" are separate nodes (see the notes at the bottom of PackageInstaller.java).
+ *
+ * - each package version declares constraints on its dependencies: "^1.2", ">=1.0, <2.0", "*"
+ * - the solver (see Solver) picks versions newest first and, on a conflict, learns which
+ *   combination of version ranges caused it, then jumps straight back to where that can be
+ *   avoided instead of retrying everything in between; what it learned is never retried
+ * - which versions of a package a constraint allows is computed once per (package, constraint)
+ */
+public class VersionResolver {
+    // package -> version -> dependency -> constraint
+    private final Map<String, TreeMap<Version, Map<String, VersionConstraint>>> packages = new HashMap<>();
+    private Compiled compiled; // what the solver works on, rebuilt after a change
+
+    public void addPackage(String name, String version) {
+        dependencies(name, Version.parse(version));
+    }
+
+    /**
+     * pkg at the given version needs dep in a version matching constraint. Several
+     * constraints on the same dependency must all hold.
+     */
+    public void addDependency(String pkg, String version, String dep, String constraint) {
+        dependencies(pkg, Version.parse(version)).merge(dep, VersionConstraint.parse(constraint), VersionConstraint::and);
+    }
+
+    // dependencies of name at version, registering that version if it is new
+    private Map<String, VersionConstraint> dependencies(String name, Version version) {
+        compiled = null;
+        return packages.computeIfAbsent(name, k -> new TreeMap<>()).computeIfAbsent(version, k -> new LinkedHashMap<>());
+    }
+
+    /**
+     * Picks a version for root (matching constraint) and for everything it needs, preferring
+     * newer versions. The map lists root first, then packages in the order they were chosen.
+     */
+    public Map<String, Version> resolve(String root, String constraint) throws ResolutionException {
+        Compiled c = compiled();
+        Integer rootId = c.ids.get(root);
+        if (rootId == null) {
+            throw new ResolutionException("Unknown package: " + root);
+        }
+        return new Solver(c, rootId, VersionConstraint.parse(constraint)).solve();
+    }
+
+    /**
+     * Resolves root and returns the installation order of the chosen versions as "name=version",
+     * dependencies first. Fails if the chosen versions depend on each other in a cycle.
+     */
+    public List<String> getInstallationOrder(String root, String constraint) throws ResolutionException {
+        Map<String, Version> selected = resolve(root, constraint);
+        PackageInstaller installer = new PackageInstaller();
+        for (Map.Entry<String, Version> entry : selected.entrySet()) {
+            String node = entry.getKey() + "=" + entry.getValue();
+            for (String dep : packages.get(entry.getKey()).get(entry.getValue()).keySet()) {
+                installer.addDependency(node, dep + "=" + selected.get(dep));
+            }
+        }
+        try {
+            return installer.getInstallationOrder(root + "=" + selected.get(root));
+        } catch (CycleException e) {
+            // PackageInstaller's CycleException, listing every cycle among the chosen versions
+            throw new ResolutionException(e.getMessage());
+        }
+    }
+
+    private Compiled compiled() {
+        if (compiled == null) {
+            compiled = new Compiled(packages);
+        }
+        return compiled;
+    }
+
+    /**
+     * The graph as arrays over package ids and version indexes (newest first)
+     */
+    private static final class Compiled {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        final Version[][] versions;
+        final int[][][] deps;                  // deps[p][v]: dependency ids of version v of p
+        final VersionConstraint[][][] constraints;
+        final BitSet[][][] allowed;            // allowed[p][v][i]: versions of deps[p][v][i] that fit
+        final BitSet[][][] sameConstraint;     // versions of p with this same allowed set for deps[p][v][i], shared
+
+        Compiled(Map<String, TreeMap<Version, Map<String, VersionConstraint>>> packages) {
+            for (String name : packages.keySet()) {
+                id(name);
+            }
+            for (TreeMap<Version, Map<String, VersionConstraint>> byVersion : packages.values()) {
+                for (Map<String, VersionConstraint> dependencies : byVersion.values()) {
+                    for (String dep : dependencies.keySet()) {
+                        // a dependency nobody declared versions for: it has none
+                        id(dep);
+                    }
+                }
+            }
+
+            int n = names.size();
+            versions = new Version[n][];
+            for (int p = 0; p < n; p++) {
+                TreeMap<Version, Map<String, VersionConstraint>> byVersion = packages.get(names.get(p));
+                versions[p] = byVersion == null ? new Version[0] : byVersion.descendingKeySet().toArray(new Version[0]);
+            }
+
+            // the same constraint on the same package is common, match it once
+            List<Map<String, BitSet>> memo = new ArrayList<>();
+            for (int p = 0; p < n; p++) {
+                memo.add(new HashMap<>());
+            }
+            deps = new int[n][][];
+            constraints = new VersionConstraint[n][][];
+            allowed = new BitSet[n][][];
+            for (int p = 0; p < n; p++) {
+                int count = versions[p].length;
+                deps[p] = new int[count][];
+                constraints[p] = new VersionConstraint[count][];
+                allowed[p] = new BitSet[count][];
+                for (int v = 0; v < count; v++) {
+                    Map<String, VersionConstraint> dependencies = packages.get(names.get(p)).get(versions[p][v]);
+                    deps[p][v] = new int[dependencies.size()];
+                    constraints[p][v] = new VersionConstraint[dependencies.size()];
+                    allowed[p][v] = new BitSet[dependencies.size()];
+                    int i = 0;
+                    for (Map.Entry<String, VersionConstraint> dependency : dependencies.entrySet()) {
+                        int dep = ids.get(dependency.getKey());
+                        VersionConstraint constraint = dependency.getValue();
+                        deps[p][v][i] = dep;
+                        constraints[p][v][i] = constraint;
+                        allowed[p][v][i] = memo.get(dep).computeIfAbsent(constraint.toString(), k -> matching(dep, constraint));
+                        i++;
+                    }
+                }
+            }
+
+            // versions of p that allow the same versions of a dependency share one incompatibility
+            sameConstraint = new BitSet[n][][];
+            for (int p = 0; p < n; p++) {
+                Map<Integer, Map<BitSet, BitSet>> groups = new HashMap<>();
+                sameConstraint[p] = new BitSet[deps[p].length][];
+                for (int v = 0; v < deps[p].length; v++) {
+                    sameConstraint[p][v] = new BitSet[deps[p][v].length];
+                    for (int i = 0; i < deps[p][v].length; i++) {
+                        BitSet group = groups.computeIfAbsent(deps[p][v][i], k -> new HashMap<>())
+                                .computeIfAbsent(allowed[p][v][i], k -> new BitSet());
+                        group.set(v);
+                        sameConstraint[p][v][i] = group;
+                    }
+                }
+            }
+        }
+
+        private void id(String name) {
+            if (!ids.containsKey(name)) {
+                ids.put(name, names.size());
+                names.add(name);
+            }
+        }
+
+        BitSet matching(int pkg, VersionConstraint constraint) {
+            BitSet result = new BitSet(versions[pkg].length);
+            for (int v = 0; v < versions[pkg].length; v++) {
+                if (constraint.matches(versions[pkg][v])) {
+                    result.set(v);
+                }
+            }
+            return result;
+        }
+
+        String name(int pkg, int version) {
+            return names.get(pkg) + "=" + versions[pkg][version];
+        }
+    }
+
+    /**
+     * One resolve run, following PubGrub.
+     *
+     * - a term says "p is selected in one of the versions S" (positive) or "p is not selected in
+     *   any of S" (negative); S is a bitset of p's version indexes, so set operations are cheap
+     * - an incompatibility is a set of terms that must not all hold. "A 2.x depends on C ^2" is
+     *   {A in 2.x, not C in ^2}; all versions of A with the same constraint on C share one.
+     * - unit propagation: once every term but one of an incompatibility holds, the negation of
+     *   the last one is derived
+     * - a decision picks the required package with the fewest versions left, newest version first
+     * - a conflict is resolved against the causes of what led to it until the result points to a
+     *   single earlier decision level; that incompatibility is learned and the solver jumps back
+     *   there. Learned incompatibilities cover version ranges, so a failure is not rediscovered
+     *   for every version or in every branch.
+     */
+    private static final class Solver {
+        final Compiled c;
+        final int root;
+        final VersionConstraint rootConstraint;
+        final BitSet rootAllowed;
+        final BitSet[] all;           // every version of each package
+        final long[][] allWords;      // all, as words
+
+        final List<Assignment> trail = new ArrayList<>();
+        final List<List<Assignment>> assignments = new ArrayList<>();        // per package, in trail order
+        final Assignment[] latest;    // last of each package's assignments, null if none
+        final WatchList[] watchers;   // per package, the incompatibilities watching its term
+        final List<Incompatibility> fresh = new ArrayList<>();          // added, not yet watched and checked
+        final Map<BitSet, Incompatibility> dependencyIncompatibilities = new IdentityHashMap<>(); // by c.sameConstraint
+        final int[] decision;         // version index, -1 if not decided
+        final boolean[] queued;       // packages waiting in the propagation queue
+        final int[] open;             // required packages without a decision, in no particular order
+        final int[] openIndex;        // position in open, -1 if not there
+        int openCount;
+        int level;
+
+        Solver(Compiled c, int root, VersionConstraint rootConstraint) {
+            int n = c.names.size();
+            this.c = c;
+            this.root = root;
+            this.rootConstraint = rootConstraint;
+            this.rootAllowed = c.matching(root, rootConstraint);
+            this.all = new BitSet[n];
+            this.decision = new int[n];
+            this.latest = new Assignment[n];
+            this.allWords = new long[n][];
+            this.watchers = new WatchList[n];
+            this.queued = new boolean[n];
+            this.open = new int[n];
+            this.openIndex = new int[n];
+            for (int p = 0; p < n; p++) {
+                all[p] = new BitSet();
+                all[p].set(0, c.versions[p].length);
+                allWords[p] = all[p].toLongArray();
+                assignments.add(new ArrayList<>());
+                watchers[p] = new WatchList();
+            }
+            Arrays.fill(decision, -1);
+            Arrays.fill(openIndex, -1);
+        }
+
+        Map<String, Version> solve() throws ResolutionException {
+            if (rootAllowed.isEmpty()) {
+                throw new ResolutionException("No version of " + c.names.get(root) + " matches '" + rootConstraint + "'");
+            }
+            addIncompatibility(new Incompatibility(new Term[]{new Term(root, false, rootAllowed)},
+                    c.names.get(root) + " '" + rootConstraint + "' was requested"));
+            int next = root;
+            while (next >= 0) {
+                propagate(next);
+                next = decide();
+            }
+
+            Map<String, Version> result = new LinkedHashMap<>();
+            for (Assignment assignment : trail) {
+                if (assignment.cause == null) {
+                    int p = assignment.term.pkg;
+                    result.put(c.names.get(p), c.versions[p][decision[p]]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Unit propagation after start changed. Each incompatibility watches two of its terms
+         * that do not hold (as in CDCL solvers' two watched literals): only once a watched term
+         * comes to hold is the incompatibility looked at, and then it either watches another
+         * term, derives the negation of its last open term, or is a conflict. A package with
+         * hundreds of incompatibilities thus costs only those that watch it and just changed.
+         */
+        private void propagate(int start) throws ResolutionException {
+            Deque<Integer> changed = new ArrayDeque<>();
+            enqueue(changed, start);
+            while (!fresh.isEmpty() || !changed.isEmpty()) {
+                if (!fresh.isEmpty()) {
+                    Incompatibility incompatibility = fresh.remove(fresh.size() - 1);
+                    if (incompatibility.first < 0) {
+                        watch(incompatibility);
+                    }
+                    check(incompatibility, changed);
+                    continue;
+                }
+                int pkg = changed.poll();
+                queued[pkg] = false;
+
+                WatchList list = watchers[pkg];
+                long[] allowed = latest[pkg] == null ? allWords[pkg] : latest[pkg].words;
+                boolean required = required(pkg);
+                int i = 0;
+                while (i < list.size) {
+                    if (!holds(list.terms[i], allowed, required)) {
+                        i++;
+                        continue;
+                    }
+                    Incompatibility incompatibility = list.incompatibilities[i];
+                    Term[] terms = incompatibility.terms;
+                    int own = terms[incompatibility.first].pkg == pkg ? incompatibility.first : incompatibility.second;
+                    int other = own == incompatibility.first ? incompatibility.second : incompatibility.first;
+                    int relation = relation(terms[other]);
+                    if (relation == CONTRADICTED) {
+                        // can no longer hold as a whole, and stays so until the other watch is undone
+                        i++;
+                        continue;
+                    }
+                    int replacement = -1;
+                    for (int k = 0; k < terms.length && replacement < 0; k++) {
+                        if (k != own && k != other && relation(terms[k]) != SATISFIED) {
+                            replacement = k;
+                        }
+                    }
+                    if (replacement >= 0) {
+                        if (own == incompatibility.first) {
+                            incompatibility.first = replacement;
+                        } else {
+                            incompatibility.second = replacement;
+                        }
+                        list.removeAt(i);
+                        watchers[terms[replacement].pkg].add(incompatibility, terms[replacement]);
+                        continue;
+                    }
+                    if (relation == INCONCLUSIVE) {
+                        derive(terms[other].negate(), incompatibility);
+                        enqueue(changed, terms[other].pkg);
+                    } else if (relation == SATISFIED) {
+                        conflict(incompatibility, changed);
+                        break;
+                    }
+                    i++;
+                }
+            }
+        }
+
+        // checks every term of a new incompatibility
+        private void check(Incompatibility incompatibility, Deque<Integer> changed) throws ResolutionException {
+            Term open = null;
+            for (Term term : incompatibility.terms) {
+                int relation = relation(term);
+                if (relation == CONTRADICTED || (relation == INCONCLUSIVE && open != null)) {
+                    return;
+                }
+                if (relation == INCONCLUSIVE) {
+                    open = term;
+                }
+            }
+            if (open == null) {
+                conflict(incompatibility, changed);
+            } else {
+                derive(open.negate(), incompatibility);
+                enqueue(changed, open.pkg);
+            }
+        }
+
+        // every term holds. After resolving it, the learned incompatibility has exactly one
+        // term left that does not hold, and propagation continues from there.
+        private void conflict(Incompatibility incompatibility, Deque<Integer> changed) throws ResolutionException {
+            Incompatibility learned = resolve(incompatibility);
+            Term last = openTerm(learned);
+            derive(last.negate(), learned);
+            if (learned.first >= 0) {
+                watchers[learned.terms[learned.first].pkg].remove(learned);
+                watchers[learned.terms[learned.second].pkg].remove(learned);
+            }
+            watch(learned);
+            for (int p : changed) {
+                queued[p] = false;
+            }
+            changed.clear();
+            enqueue(changed, last.pkg);
+        }
+
+        /**
+         * Picks the terms to watch: ones that do not hold, else the ones that came to hold last,
+         * as backtracking undoes those first
+         */
+        private void watch(Incompatibility incompatibility) {
+            Term[] terms = incompatibility.terms;
+            int first = -1;
+            int second = -1;
+            int firstRank = -1;
+            int secondRank = -1;
+            for (int k = 0; k < terms.length; k++) {
+                int rank = relation(terms[k]) != SATISFIED ? Integer.MAX_VALUE : earliestSatisfier(terms[k]).index;
+                if (rank > firstRank) {
+                    second = first;
+                    secondRank = firstRank;
+                    first = k;
+                    firstRank = rank;
+                } else if (rank > secondRank) {
+                    second = k;
+                    secondRank = rank;
+                }
+            }
+            incompatibility.first = first;
+            incompatibility.second = second < 0 ? first : second;
+            watchers[terms[first].pkg].add(incompatibility, terms[first]);
+            if (second >= 0) {
+                watchers[terms[second].pkg].add(incompatibility, terms[second]);
+            }
+        }
+
+        private void enqueue(Deque<Integer> changed, int p) {
+            if (!queued[p]) {
+                queued[p] = true;
+                changed.add(p);
+            }
+        }
+
+        /**
+         * Conflict resolution: combines the incompatibility with the cause of its latest
+         * satisfier until the satisfier is a decision or the only term set at its decision
+         * level, then backjumps to the level where the result becomes useful again
+         */
+        private Incompatibility resolve(Incompatibility incompatibility) throws ResolutionException {
+            Incompatibility original = incompatibility;
+            while (true) {
+                if (incompatibility.terms.length == 0) {
+                    throw new ResolutionException(explain(incompatibility));
+                }
+
+                Term term = null;
+                Assignment satisfier = null;
+                int previous = -1;
+                for (Term t : incompatibility.terms) {
+                    Assignment s = earliestSatisfier(t);
+                    if (satisfier == null || s.index > satisfier.index) {
+                        if (satisfier != null) {
+                            previous = Math.max(previous, satisfier.index);
+                        }
+                        satisfier = s;
+                        term = t;
+                    } else {
+                        previous = Math.max(previous, s.index);
+                    }
+                }
+
+                // the satisfier may only satisfy its term together with earlier assignments to
+                // the same package; the earliest of those that completes it counts as well
+                int p = term.pkg;
+                BitSet allowed = (BitSet) all[p].clone();
+                boolean required = apply(satisfier.term, allowed, false);
+                boolean satisfierAlone = satisfied(term, allowed, required);
+                if (!satisfierAlone) {
+                    for (Assignment earlier : assignments.get(p)) {
+                        if (earlier.index >= satisfier.index) {
+                            break;
+                        }
+                        required = apply(earlier.term, allowed, required);
+                        if (satisfied(term, allowed, required)) {
+                            previous = Math.max(previous, earlier.index);
+                            break;
+                        }
+                    }
+                }
+                int previousLevel = previous >= 0 ? trail.get(previous).level : 0;
+
+                if (satisfier.cause == null || previousLevel != satisfier.level) {
+                    if (incompatibility != original) {
+                        addIncompatibility(incompatibility);
+                    }
+                    backtrack(previousLevel);
+                    return incompatibility;
+                }
+
+                Map<Integer, Term> prior = new LinkedHashMap<>();
+                for (Term t : incompatibility.terms) {
+                    if (t.pkg != p) {
+                        merge(prior, t);
+                    }
+                }
+                for (Term t : satisfier.cause.terms) {
+                    if (t.pkg != p) {
+                        merge(prior, t);
+                    }
+                }
+                if (!satisfierAlone) {
+                    merge(prior, satisfier.term.intersect(term.negate()).negate());
+                }
+                incompatibility = new Incompatibility(terms(prior), incompatibility, satisfier.cause);
+            }
+        }
+
+        /**
+         * Picks a version for the required package with the fewest versions left. Returns that
+         * package, or -1 once every required package has a version.
+         */
+        private int decide() {
+            int best = -1;
+            int bestCount = Integer.MAX_VALUE;
+            for (int i = 0; i < openCount; i++) {
+                int p = open[i];
+                int count = count(p);
+                // ties go to the package seen first, so the outcome does not depend on open's order
+                if (count < bestCount || (count == bestCount && p < best)) {
+                    best = p;
+                    bestCount = count;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+
+            // a required package always has a version left, propagation derives nothing else
+            int version = allowed(best).nextSetBit(0);
+            boolean conflict = false;
+            for (int i = 0; i < c.deps[best][version].length; i++) {
+                Incompatibility dependency = dependencyIncompatibility(best, version, i);
+                if (holdsExcept(dependency, best)) {
+                    // it may be an old one whose watches have not seen this yet, check it again
+                    conflict = true;
+                    addIncompatibility(dependency);
+                }
+            }
+            if (!conflict) {
+                // otherwise leave it to propagation, which now rules this version out
+                level++;
+                decision[best] = version;
+                BitSet single = new BitSet();
+                single.set(version);
+                addAssignment(new Term(best, true, single), null);
+            }
+            return best;
+        }
+
+        // {p in the versions with this same constraint on q, not q in that constraint}
+        private Incompatibility dependencyIncompatibility(int p, int v, int i) {
+            BitSet sameConstraint = c.sameConstraint[p][v][i];
+            Incompatibility known = dependencyIncompatibilities.get(sameConstraint);
+            if (known != null) {
+                return known;
+            }
+            int q = c.deps[p][v][i];
+            BitSet allowedQ = c.allowed[p][v][i];
+
+            Map<Integer, Term> terms = new LinkedHashMap<>();
+            merge(terms, new Term(p, true, sameConstraint));
+            merge(terms, new Term(q, false, allowedQ));
+            Incompatibility dependency = new Incompatibility(terms(terms), c.names.get(p) + " "
+                    + versionsText(p, sameConstraint) + " depends on " + c.names.get(q) + " '"
+                    + c.constraints[p][v][i] + "'" + (allowedQ.isEmpty() ? ", which has no such version" : ""));
+            dependencyIncompatibilities.put(sameConstraint, dependency);
+            addIncompatibility(dependency);
+            return dependency;
+        }
+
+        private boolean holdsExcept(Incompatibility incompatibility, int p) {
+            for (Term term : incompatibility.terms) {
+                if (term.pkg != p && relation(term) != SATISFIED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Term openTerm(Incompatibility incompatibility) {
+            for (Term term : incompatibility.terms) {
+                if (relation(term) == INCONCLUSIVE) {
+                    return term;
+                }
+            }
+            throw new IllegalStateException("No open term after conflict resolution");
+        }
+
+        private static final int SATISFIED = 0;
+        private static final int CONTRADICTED = 1;
+        private static final int INCONCLUSIVE = 2;
+
+        // on the words of both sets in one pass: this is what propagation spends its time on
+        private int relation(Term term) {
+            Assignment assignment = latest[term.pkg];
+            long[] allowed = assignment == null ? allWords[term.pkg] : assignment.words;
+            long[] versions = term.words;
+            boolean intersects = false;
+            boolean subset = true;
+            for (int k = 0; k < allowed.length; k++) {
+                long word = k < versions.length ? versions[k] : 0;
+                intersects |= (allowed[k] & word) != 0;
+                subset &= (allowed[k] & ~word) == 0;
+            }
+            if (!intersects) {
+                return term.positive ? CONTRADICTED : SATISFIED;
+            }
+            if (assignment != null && assignment.required && subset) {
+                return term.positive ? SATISFIED : CONTRADICTED;
+            }
+            return INCONCLUSIVE;
+        }
+
+        // relation(term) == SATISFIED, given the package's allowed words
+        private static boolean holds(Term term, long[] allowed, boolean required) {
+            long[] versions = term.words;
+            if (term.positive) {
+                if (!required) {
+                    return false;
+                }
+                boolean intersects = false;
+                for (int k = 0; k < allowed.length; k++) {
+                    long word = k < versions.length ? versions[k] : 0;
+                    if ((allowed[k] & ~word) != 0) {
+                        return false;
+                    }
+                    intersects |= (allowed[k] & word) != 0;
+                }
+                return intersects;
+            }
+            for (int k = 0; k < allowed.length && k < versions.length; k++) {
+                if ((allowed[k] & versions[k]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean satisfied(Term term, BitSet allowed, boolean required) {
+            return term.positive ? required && subset(allowed, term.versions) : !allowed.intersects(term.versions);
+        }
+
+        // without allocating; hops over whole runs of b, and constraints are mostly version
+        // ranges, which are runs of indexes
+        private static boolean subset(BitSet a, BitSet b) {
+            for (int i = a.nextSetBit(0); i >= 0; i = a.nextSetBit(i)) {
+                int end = b.nextClearBit(i);
+                if (end == i) {
+                    return false;
+                }
+                i = end;
+            }
+            return true;
+        }
+
+        // narrows 'allowed' by term; returns whether the package is now required
+        private static boolean apply(Term term, BitSet allowed, boolean required) {
+            if (term.positive) {
+                allowed.and(term.versions);
+                return true;
+            }
+            allowed.andNot(term.versions);
+            return required;
+        }
+
+        private Assignment earliestSatisfier(Term term) {
+            for (Assignment assignment : assignments.get(term.pkg)) {
+                if (satisfied(term, assignment.allowed, assignment.required)) {
+                    return assignment;
+                }
+            }
+            throw new IllegalStateException("Term not satisfied: " + c.names.get(term.pkg));
+        }
+
+        // versions of p the partial solution still allows
+        private BitSet allowed(int p) {
+            return latest[p] == null ? all[p] : latest[p].allowed;
+        }
+
+        private int count(int p) {
+            return latest[p] == null ? c.versions[p].length : latest[p].count;
+        }
+
+        // whether the partial solution requires p to be selected
+        private boolean required(int p) {
+            return latest[p] != null && latest[p].required;
+        }
+
+        private void derive(Term term, Incompatibility cause) {
+            addAssignment(term, cause);
+        }
+
+        private void addAssignment(Term term, Incompatibility cause) {
+            BitSet allowed = (BitSet) allowed(term.pkg).clone();
+            boolean required = apply(term, allowed, required(term.pkg));
+            Assignment assignment = new Assignment(term, level, cause, trail.size(), allowed, required);
+            trail.add(assignment);
+            assignments.get(term.pkg).add(assignment);
+            latest[term.pkg] = assignment;
+            updateOpen(term.pkg);
+        }
+
+        // keeps open in step with "required and not decided" as assignments come and go
+        private void updateOpen(int p) {
+            boolean isOpen = decision[p] < 0 && required(p);
+            if (isOpen && openIndex[p] < 0) {
+                openIndex[p] = openCount;
+                open[openCount++] = p;
+            } else if (!isOpen && openIndex[p] >= 0) {
+                int last = open[--openCount];
+                open[openIndex[p]] = last;
+                openIndex[last] = openIndex[p];
+                openIndex[p] = -1;
+            }
+        }
+
+        private void backtrack(int toLevel) {
+            while (!trail.isEmpty() && trail.get(trail.size() - 1).level > toLevel) {
+                Assignment assignment = trail.remove(trail.size() - 1);
+                List<Assignment> list = assignments.get(assignment.term.pkg);
+                list.remove(list.size() - 1);
+                latest[assignment.term.pkg] = list.isEmpty() ? null : list.get(list.size() - 1);
+                if (assignment.cause == null) {
+                    decision[assignment.term.pkg] = -1;
+                }
+                updateOpen(assignment.term.pkg);
+            }
+            level = toLevel;
+        }
+
+        // watched once propagation gets to it
+        private void addIncompatibility(Incompatibility incompatibility) {
+            fresh.add(incompatibility);
+        }
+
+        private static void merge(Map<Integer, Term> terms, Term term) {
+            terms.merge(term.pkg, term, Term::intersect);
+        }
+
+        // "not in no versions" always holds and says nothing, leave it out
+        private static Term[] terms(Map<Integer, Term> terms) {
+            List<Term> result = new ArrayList<>();
+            for (Term term : terms.values()) {
+                if (term.positive || !term.versions.isEmpty()) {
+                    result.add(term);
+                }
+            }
+            return result.toArray(new Term[0]);
+        }
+
+        private String versionsText(int p, BitSet versions) {
+            int count = versions.cardinality();
+            if (count == 1) {
+                return c.versions[p][versions.nextSetBit(0)].toString();
+            }
+            // indexes run newest first
+            String oldest = c.versions[p][versions.length() - 1].toString();
+            String newest = c.versions[p][versions.nextSetBit(0)].toString();
+            return count == c.versions[p].length ? "(any version)" : "{" + oldest + " .. " + newest + ", " + count + " versions}";
+        }
+
+        /**
+         * The facts the failure was derived from, root request first
+         */
+        private String explain(Incompatibility failure) {
+            Set<String> facts = new LinkedHashSet<>();
+            Set<Incompatibility> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<Incompatibility> stack = new ArrayDeque<>();
+            stack.push(failure);
+            while (!stack.isEmpty()) {
+                Incompatibility incompatibility = stack.pop();
+                if (!seen.add(incompatibility)) {
+                    continue;
+                }
+                if (incompatibility.external != null) {
+                    facts.add(incompatibility.external);
+                } else {
+                    stack.push(incompatibility.right);
+                    stack.push(incompatibility.left);
+                }
+            }
+            String request = c.names.get(root) + " '" + rootConstraint + "' was requested";
+            List<String> shown = new ArrayList<>();
+            if (facts.remove(request)) {
+                shown.add(request);
+            }
+            shown.addAll(facts);
+            String more = shown.size() > 8 ? "; and " + (shown.size() - 8) + " more" : "";
+            return "No consistent versions for " + c.names.get(root) + " '" + rootConstraint + "': "
+                    + String.join("; ", shown.subList(0, Math.min(8, shown.size()))) + more;
+        }
+    }
+
+    /**
+     * The incompatibilities watching a package, each next to the term it watches, so checking
+     * that term does not go through the incompatibility
+     */
+    private static final class WatchList {
+        Incompatibility[] incompatibilities = new Incompatibility[4];
+        Term[] terms = new Term[4];
+        int size;
+
+        void add(Incompatibility incompatibility, Term term) {
+            if (size == terms.length) {
+                incompatibilities = Arrays.copyOf(incompatibilities, size * 2);
+                terms = Arrays.copyOf(terms, size * 2);
+            }
+            incompatibilities[size] = incompatibility;
+            terms[size++] = term;
+        }
+
+        // the last one takes its place
+        void removeAt(int i) {
+            size--;
+            incompatibilities[i] = incompatibilities[size];
+            terms[i] = terms[size];
+            incompatibilities[size] = null;
+            terms[size] = null;
+        }
+
+        void remove(Incompatibility incompatibility) {
+            for (int i = 0; i < size; i++) {
+                if (incompatibilities[i] == incompatibility) {
+                    removeAt(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * "pkg is selected in one of versions" (positive) or "pkg is not selected in any of versions"
+     */
+    private static final class Term {
+        final int pkg;
+        final boolean positive;
+        final BitSet versions;
+        final long[] words;         // versions as words, for relation()
+
+        Term(int pkg, boolean positive, BitSet versions) {
+            this(pkg, positive, versions, versions.toLongArray());
+        }
+
+        private Term(int pkg, boolean positive, BitSet versions, long[] words) {
+            this.pkg = pkg;
+            this.positive = positive;
+            this.versions = versions;
+            this.words = words;
+        }
+
+        Term negate() {
+            return new Term(pkg, !positive, versions, words);
+        }
+
+        /**
+         * Both terms at once (same package)
+         */
+        Term intersect(Term other) {
+            BitSet result;
+            if (positive || other.positive) {
+                Term in = positive ? this : other;
+                Term out = positive ? other : this;
+                result = (BitSet) in.versions.clone();
+                if (out.positive) {
+                    result.and(out.versions);
+                } else {
+                    result.andNot(out.versions);
+                }
+                return new Term(pkg, true, result);
+            }
+            result = (BitSet) versions.clone();
+            result.or(other.versions);
+            return new Term(pkg, false, result);
+        }
+    }
+
+    /**
+     * Terms that must not all hold. External ones come from the input (a dependency, the
+     * request); derived ones from resolving two others during conflict resolution.
+     */
+    private static final class Incompatibility {
+        final Term[] terms;
+        final String external;
+        final Incompatibility left;
+        final Incompatibility right;
+        int first = -1;     // indexes of the watched terms, the same one if there is only one
+        int second = -1;
+
+        Incompatibility(Term[] terms, String external) {
+            this.terms = terms;
+            this.external = external;
+            this.left = null;
+            this.right = null;
+        }
+
+        Incompatibility(Term[] terms, Incompatibility left, Incompatibility right) {
+            this.terms = terms;
+            this.external = null;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * A decision (cause == null) or a term derived from its cause; 'allowed' and 'required'
+     * describe the package after this assignment, so undoing one is just dropping it
+     */
+    private static final class Assignment {
+        final Term term;
+        final int level;
+        final Incompatibility cause;
+        final int index;
+        final BitSet allowed;
+        final long[] words;         // allowed as words
+        final int count;            // allowed.cardinality()
+        final boolean required;
+
+        Assignment(Term term, int level, Incompatibility cause, int index, BitSet allowed, boolean required) {
+            this.term = term;
+            this.level = level;
+            this.cause = cause;
+            this.index = index;
+            this.allowed = allowed;
+            this.words = allowed.toLongArray();
+            this.count = allowed.cardinality();
+            this.required = required;
+        }
+    }
+
+    /**
+     * Simple testing
+     */
+    public static void main(String[] args) {
+        VersionResolver resolver = new VersionResolver();
+
+        // the newest A needs C 2.x, but every B needs C 1.x, so A 2.0 cannot be used
+        resolver.addDependency("A", "2.0", "B", "^1.0");
+        resolver.addDependency("A", "2.0", "C", "^2.0");
+        resolver.addDependency("A", "1.5", "B", ">=1.0, <2.0");
+        resolver.addDependency("A", "1.5", "C", "*");
+        resolver.addDependency("B", "1.0", "C", "~1.1");
+        resolver.addDependency("B", "1.2", "C", "~1.2");
+        resolver.addDependency("B", "1.2", "D", "=1.0");
+        resolver.addPackage("C", "1.1.4");
+        resolver.addPackage("C", "1.2.0");
+        resolver.addPackage("C", "2.0.1");
+        resolver.addDependency("D", "1.0", "C", ">=1.0");
+
+        try {
+            System.out.println("Resolved: " + resolver.resolve("A", "*"));
+            System.out.println("Install order: " + resolver.getInstallationOrder("A", "*"));
+            System.out.println("Install order for A 2.x: " + resolver.getInstallationOrder("A", "^2.0"));
+        } catch (ResolutionException e) {
+            System.out.println(e.getMessage());
+        }
+
+        // scale: 3000 packages x 30 versions, each version needs 4 older packages; the three
+        // newest versions of every 7th package need a package that does not exist
+        VersionResolver big = new VersionResolver();
+        Random random = new Random(42);
+        int packageCount = 3000;
+        for (int i = 0; i < packageCount; i++) {
+            for (int v = 0; v < 30; v++) {
+                String version = (v / 10 + 1) + "." + (v % 10);
+                big.addPackage("pkg" + i, version);
+                for (int k = 0; k < 4 && i > 0; k++) {
+                    String constraint = random.nextInt(3) == 0 ? "^" + (random.nextInt(3) + 1) + ".0" : ">=1." + random.nextInt(5);
+                    big.addDependency("pkg" + i, version, "pkg" + random.nextInt(i), constraint);
+                }
+                if (i % 7 == 3 && v >= 27) {
+                    big.addDependency("pkg" + i, version, "missing", "*");
+                }
+            }
+        }
+        try {
+            long start = System.nanoTime();
+            Map<String, Version> selected = big.resolve("pkg" + (packageCount - 1), "*");
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            for (Map.Entry<String, Version> entry : selected.entrySet()) {
+                for (Map.Entry<String, VersionConstraint> dep : big.packages.get(entry.getKey()).get(entry.getValue()).entrySet()) {
+                    if (!selected.containsKey(dep.getKey()) || !dep.getValue().matches(selected.get(dep.getKey()))) {
+                        throw new IllegalStateException(entry.getKey() + " " + entry.getValue() + " needs " + dep.getKey() + " " + dep.getValue());
+                    }
+                }
+            }
+            System.out.println("Resolved " + selected.size() + " of " + packageCount + " packages in " + millis + " ms");
+        } catch (ResolutionException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
+
+/**
+ * Dotted numeric version such as 1.2.3. Missing parts count as 0, so 1.2 equals 1.2.0.
+ */
+class Version implements Comparable<Version> {
+    private final int[] parts;
+    private final String text;
+
+    private Version(int[] parts, String text) {
+        this.parts = parts;
+        this.text = text;
+    }
+
+    public static Version parse(String text) {
+        String[] pieces = text.trim().split("\\.");
+        int[] parts = new int[pieces.length];
+        try {
+            for (int i = 0; i < pieces.length; i++) {
+                parts[i] = Integer.parseInt(pieces[i]);
+                if (parts[i] < 0) {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal version: " + text);
+        }
+        return new Version(parts, text.trim());
+    }
+
+    int part(int i) {
+        return i < parts.length ? parts[i] : 0;
+    }
+
+    int length() {
+        return parts.length;
+    }
+
+    /**
+     * This version with part i incremented and everything after it dropped: 1.2.3 -> 1.3 for i = 1
+     */
+    Version bump(int i) {
+        int[] bumped = new int[i + 1];
+        for (int k = 0; k < i; k++) {
+            bumped[k] = part(k);
+        }
+        bumped[i] = part(i) + 1;
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k <= i; k++) {
+            sb.append(k == 0 ? "" : ".").append(bumped[k]);
+        }
+        return new Version(bumped, sb.toString());
+    }
+
+    @Override
+    public int compareTo(Version other) {
+        for (int i = 0, n = Math.max(parts.length, other.parts.length); i < n; i++) {
+            int cmp = Integer.compare(part(i), other.part(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Version && compareTo((Version) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int n = parts.length;
+        while (n > 0 && parts[n - 1] == 0) {
+            n--;
+        }
+        return Arrays.hashCode(Arrays.copyOf(parts, n));
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
+
+/**
+ * Comma separated comparisons that must all hold:
+ *
+ * - "1.2" or "=1.2": exactly that version
+ * - ">=1.2", ">1.2", "<=1.2", "<1.2"
+ * - "^1.2.3": compatible, up to the next change of the first non-zero part (<2.0.0; ^0.2.3 means <0.3.0)
+ * - "~1.2.3": patch updates only (<1.3.0; ~1 means <2)
+ * - "*": any version
+ */
+class VersionConstraint {
+    private final List<String> ops;
+    private final List<Version> bounds;
+    private final String text;
+
+    private VersionConstraint(List<String> ops, List<Version> bounds, String text) {
+        this.ops = ops;
+        this.bounds = bounds;
+        this.text = text;
+    }
+
+    public static VersionConstraint parse(String text) {
+        List<String> ops = new ArrayList<>();
+        List<Version> bounds = new ArrayList<>();
+        for (String piece : text.split(",")) {
+            String term = piece.trim();
+            if (term.equals("*")) {
+                continue;
+            }
+            if (term.isEmpty()) {
+                throw new IllegalArgumentException("Illegal constraint: " + text);
+            }
+            String op = term.startsWith(">=") || term.startsWith("<=") ? term.substring(0, 2)
+                    : "=><^~".indexOf(term.charAt(0)) >= 0 ? term.substring(0, 1) : "=";
+            Version version = Version.parse(term.substring(op.equals("=") && term.charAt(0) != '=' ? 0 : op.length()));
+            if (op.equals("^") || op.equals("~")) {
+                int i = 0;
+                if (op.equals("^")) {
+                    // first non-zero part given, or the last one given
+                    while (i < version.length() - 1 && version.part(i) == 0) {
+                        i++;
+                    }
+                } else {
+                    i = Math.min(1, version.length() - 1);
+                }
+                ops.add(">=");
+                bounds.add(version);
+                ops.add("<");
+                bounds.add(version.bump(i));
+            } else {
+                ops.add(op);
+                bounds.add(version);
+            }
+        }
+        return new VersionConstraint(ops, bounds, text.trim());
+    }
+
+    /**
+     * Both constraints at once
+     */
+    VersionConstraint and(VersionConstraint other) {
+        List<String> ops = new ArrayList<>(this.ops);
+        List<Version> bounds = new ArrayList<>(this.bounds);
+        ops.addAll(other.ops);
+        bounds.addAll(other.bounds);
+        return new VersionConstraint(ops, bounds, text + ", " + other.text);
+    }
+
+    public boolean matches(Version version) {
+        for (int i = 0; i < ops.size(); i++) {
+            int cmp = version.compareTo(bounds.get(i));
+            boolean ok;
+            switch (ops.get(i)) {
+                case "=":
+                    ok = cmp == 0;
+                    break;
+                case ">=":
+                    ok = cmp >= 0;
+                    break;
+                case ">":
+                    ok = cmp > 0;
+                    break;
+                case "<=":
+                    ok = cmp <= 0;
+                    break;
+                default:
+                    ok = cmp < 0;
+                    break;
+            }
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
+
+/**
+ * Thrown when no choice of versions satisfies every constraint
+ */
+class ResolutionException extends Exception {
+    ResolutionException(String message) {
+        super(message);
+    }
+}
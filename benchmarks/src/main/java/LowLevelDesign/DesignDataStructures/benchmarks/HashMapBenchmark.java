@@ -0,0 +1,108 @@
+package LowLevelDesign.DesignDataStructures.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady-state operations on a map that already holds size keys: get hit, get miss,
+ * overwrite, and remove followed by re-insert. No resize happens here, see HashMapGrowBenchmark.
+ *
+ * Build and run from the repository root:
+ *
+ *   mvn -B package
+ *   java -jar benchmarks/target/benchmarks.jar HashMapBenchmark -prof gc -rf json -rff results.json
+ *
+ * - throughput and SampleTime percentiles (p99, p99.99) come out of the same run
+ * - -prof gc adds allocation rate (gc.alloc.rate.norm = bytes per operation)
+ * - narrow the matrix with -p, e.g. -p kind=CHAINED,JDK_HASHMAP -p keyType=STRING -p size=10000000
+ * - 100M keys need a bigger heap: -jvmArgsAppend "-Xms48g -Xmx48g"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:+AlwaysPreTouch"})
+public class HashMapBenchmark {
+
+    @Param({"CHAINED", "OPEN_ADDRESSING", "INCREMENTAL", "CONCURRENT", "JDK_HASHMAP", "JDK_CONCURRENT"})
+    public MapKind kind;
+
+    @Param({"INTEGER", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"0.5", "0.75", "0.9"})
+    public float loadFactor;
+
+    private MapKind.Adapter map;
+    private Object[] keys;      // present in the map, shuffled
+    private Object[] missing;   // never in the map, shuffled
+    private int hitCursor;
+    private int missCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = keyType.generate(0, size);
+        missing = keyType.generate(size, size);
+        map = kind.create(16, loadFactor);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        if (map.size() != size) {
+            throw new IllegalStateException("Expected " + size + " keys but map has " + map.size());
+        }
+    }
+
+    private Object nextHit() {
+        int i = hitCursor;
+        hitCursor = (i + 1 == keys.length) ? 0 : i + 1;
+        return keys[i];
+    }
+
+    private Object nextMiss() {
+        int i = missCursor;
+        missCursor = (i + 1 == missing.length) ? 0 : i + 1;
+        return missing[i];
+    }
+
+    @Benchmark
+    public Object getHit() {
+        return map.get(nextHit());
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return map.get(nextMiss());
+    }
+
+    @Benchmark
+    public void putOverwrite() {
+        Object key = nextHit();
+        map.put(key, key);
+    }
+
+    /**
+     * Remove and put back, so the size (and the table) stays the same across invocations
+     */
+    @Benchmark
+    public void removeAndPut() {
+        Object key = nextHit();
+        map.remove(key);
+        map.put(key, key);
+    }
+}
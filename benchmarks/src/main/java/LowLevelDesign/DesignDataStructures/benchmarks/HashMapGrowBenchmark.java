@@ -0,0 +1,90 @@
+package LowLevelDesign.DesignDataStructures.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of growing a map, i.e. put together with resize.
+ *
+ * - buildGrowing / buildPresized fill a new map with size keys, starting from the default
+ *   capacity or from a capacity that never needs a resize; the difference is the resize cost
+ * - putGrowing inserts one key per invocation into a map that keeps growing (a new map is
+ *   started once size keys are in). Run it in SampleTime mode to see the latency spikes of
+ *   resizing all at once versus INCREMENTAL
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar HashMapGrowBenchmark -prof gc -rf json -rff grow.json
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:+AlwaysPreTouch"})
+public class HashMapGrowBenchmark {
+
+    @Param({"CHAINED", "OPEN_ADDRESSING", "INCREMENTAL", "CONCURRENT", "JDK_HASHMAP", "JDK_CONCURRENT"})
+    public MapKind kind;
+
+    @Param({"INTEGER", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"0.5", "0.75", "0.9"})
+    public float loadFactor;
+
+    private Object[] keys;
+    private MapKind.Adapter growing;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = keyType.generate(0, size);
+        growing = kind.create(16, loadFactor);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MapKind.Adapter buildGrowing() {
+        MapKind.Adapter map = kind.create(16, loadFactor);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MapKind.Adapter buildPresized() {
+        MapKind.Adapter map = kind.create((int) Math.min((long) (size / loadFactor) + 1, 1 << 30), loadFactor);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    public void putGrowing() {
+        if (cursor == keys.length) {
+            cursor = 0;
+            growing = kind.create(16, loadFactor);
+        }
+        Object key = keys[cursor++];
+        growing.put(key, key);
+    }
+}
@@ -0,0 +1,53 @@
+package LowLevelDesign.DesignDataStructures.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Key shapes used by the benchmarks. Keys are generated from a fixed seed,
+ * so every run (and every fork) works on exactly the same data.
+ */
+public enum KeyType {
+    INTEGER {
+        @Override
+        Object key(long id) {
+            return (int) id;
+        }
+    },
+    LONG {
+        @Override
+        Object key(long id) {
+            return id * 0x9E3779B97F4A7C15L;
+        }
+    },
+    STRING {
+        @Override
+        Object key(long id) {
+            return "key-" + id;
+        }
+    };
+
+    static final long SEED = 42;
+
+    abstract Object key(long id);
+
+    /**
+     * Returns count distinct keys built from ids in [from, from + count), in shuffled order
+     */
+    Object[] generate(int from, int count) {
+        Object[] keys = new Object[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(from + (long) i);
+        }
+        shuffle(keys, new SplittableRandom(SEED + from));
+        return keys;
+    }
+
+    static void shuffle(Object[] array, SplittableRandom random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package LowLevelDesign.DesignDataStructures.benchmarks;
+
+import LowLevelDesign.DesignDataStructures.ConcurrentHashMap;
+import LowLevelDesign.DesignDataStructures.HashMap;
+
+/**
+ * The maps under test, behind one small interface so every benchmark body is the same
+ * for all of them. Each JMH fork only ever sees one kind, so the interface call stays monomorphic.
+ */
+public enum MapKind {
+    CHAINED {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            return custom(new HashMap<>(capacity, loadFactor, HashMap.Storage.CHAINED));
+        }
+    },
+    OPEN_ADDRESSING {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            return custom(new HashMap<>(capacity, loadFactor, HashMap.Storage.OPEN_ADDRESSING));
+        }
+    },
+    INCREMENTAL {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            return custom(new HashMap<>(capacity, loadFactor, HashMap.Storage.CHAINED,
+                    HashMap.ResizeMode.INCREMENTAL));
+        }
+    },
+    CONCURRENT {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>(capacity, loadFactor);
+            return new Adapter() {
+                public Object get(Object key) {
+                    return map.get(key);
+                }
+
+                public void put(Object key, Object value) {
+                    map.put(key, value);
+                }
+
+                public Object remove(Object key) {
+                    return map.remove(key);
+                }
+
+                public int size() {
+                    return map.size();
+                }
+            };
+        }
+    },
+    JDK_HASHMAP {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            return jdk(new java.util.HashMap<>(capacity, loadFactor));
+        }
+    },
+    JDK_CONCURRENT {
+        @Override
+        Adapter create(int capacity, float loadFactor) {
+            return jdk(new java.util.concurrent.ConcurrentHashMap<>(capacity, loadFactor));
+        }
+    };
+
+    /**
+     * Minimal map operations the benchmarks need
+     */
+    interface Adapter {
+        Object get(Object key);
+
+        void put(Object key, Object value);
+
+        Object remove(Object key);
+
+        int size();
+    }
+
+    abstract Adapter create(int capacity, float loadFactor);
+
+    private static Adapter custom(HashMap<Object, Object> map) {
+        return new Adapter() {
+            public Object get(Object key) {
+                return map.get(key);
+            }
+
+            public void put(Object key, Object value) {
+                map.put(key, value);
+            }
+
+            public Object remove(Object key) {
+                return map.remove(key);
+            }
+
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    private static Adapter jdk(java.util.Map<Object, Object> map) {
+        return new Adapter() {
+            public Object get(Object key) {
+                return map.get(key);
+            }
+
+            public void put(Object key, Object value) {
+                map.put(key, value);
+            }
+
+            public Object remove(Object key) {
+                return map.remove(key);
+            }
+
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+}